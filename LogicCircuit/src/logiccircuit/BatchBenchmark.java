@@ -0,0 +1,83 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BatchBenchmark measures the throughput of BatchRunner against starting one JVM per job.
+ * It writes a few random DAG netlists and a job file that simulates each of them many times, runs the batch
+ * in this JVM, then runs every job as its own LogicCircuit -mmap -trace none process, as many processes at
+ * once as the batch has workers, and reports jobs per second of both.
+ *
+ * Usage: BatchBenchmark [jobs] [netlists] [gates] [workers]
+ * @see BatchRunner
+ */
+public class BatchBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        int jobCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int netlists = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int gates = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int workers = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        Path dir = Files.createTempDirectory("batch");
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int n = 0; n < netlists; n++) {
+                Path file = dir.resolve("dag" + n + ".txt");
+                Files.write(file, CircuitGenerator.randomDag(gates, 64, false, n + 1).netlist().getBytes(StandardCharsets.UTF_8));
+                files.add(file);
+            }
+            StringBuilder jobs = new StringBuilder();
+            for (int j = 0; j < jobCount; j++) {
+                jobs.append(files.get(j % netlists)).append('\n');
+            }
+            Path jobFile = dir.resolve("jobs.txt");
+            Files.write(jobFile, jobs.toString().getBytes(StandardCharsets.UTF_8));
+            files.add(jobFile);
+            System.out.println(jobCount + " jobs over " + netlists + " netlists of " + gates + " gates, " + workers + " workers");
+
+            BatchRunner runner = new BatchRunner(workers);
+            long start = System.nanoTime();
+            List<BatchRunner.Result> results = runner.run(BatchRunner.readJobs(jobFile));
+            double batch = (System.nanoTime() - start) / 1e9;
+            long failed = results.stream().filter(r -> r.failed).count();
+            System.out.printf("batch, one JVM       %8.3f s  %8.1f jobs/s  %d netlists parsed, %d failed%n",
+                    batch, jobCount / batch, runner.netlistsParsed(), failed);
+
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            String classPath = System.getProperty("java.class.path");
+            ExecutorService pool = Executors.newFixedThreadPool(workers);
+            List<Future<Integer>> exits = new ArrayList<>();
+            start = System.nanoTime();
+            for (int j = 0; j < jobCount; j++) {
+                Path netlist = files.get(j % netlists);
+                exits.add(pool.submit(() -> new ProcessBuilder(java, "-cp", classPath, "com.rwedoff.LogicCircuit",
+                        "-mmap", "-trace", "none", netlist.toString())
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD).redirectErrorStream(true).start().waitFor()));
+            }
+            failed = 0;
+            for (Future<Integer> exit : exits) {
+                failed += exit.get() == 0 ? 0 : 1;
+            }
+            double processes = (System.nanoTime() - start) / 1e9;
+            pool.shutdown();
+            System.out.printf("one JVM per job      %8.3f s  %8.1f jobs/s  %d failed%n", processes, jobCount / processes, failed);
+            System.out.printf("batch speedup        %8.2f%n", processes / batch);
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BatchRunner runs many simulation jobs in one JVM, at once on a fixed pool of worker threads.
+ * Each job is its own CompiledSimulation with its own scheduler, trace and stimulus, so jobs share nothing
+ * but the netlists: a netlist is parsed by MappedNetlistParser, or loaded if it is binary, once per batch,
+ * however many jobs name it, and the CompiledCircuit is shared by all of them since a simulation only reads it.
+ * The errors of a job are logged to the job rather than standard error, and a fatal one fails the job only.
+ *
+ * A job file has one job per line, // starts a comment:
+ *
+ *     netlist [stimulus=file] [trace=kind:file] [until=time] [events=n] [wall=seconds] [steady=time]
+ *
+ * where trace is as the -trace option but must name a file, none by default, and the others bound a job
+ * that does not settle as the options of the same names do, see RunLimits.  Job files and netlist files are
+ * named relative to the working directory.
+ * @see Errors#logTo(List)
+ */
+class BatchRunner {
+    private final int workers;
+    private final ConcurrentHashMap<String, CompletableFuture<Netlist>> cache = new ConcurrentHashMap<>();
+    private final AtomicInteger parsed = new AtomicInteger();
+
+    static class Job {
+        final int number;        //line in the job file
+        final String netlist;
+        String stimulus;
+        String trace = "none";
+        final RunLimits limits = new RunLimits();
+
+        Job(int number, String netlist) {
+            this.number = number;
+            this.netlist = netlist;
+        }
+    }
+
+    static class Result {
+        final Job job;
+        final List<String> messages = new ArrayList<>();
+        boolean failed;
+        long events;
+        double seconds;
+
+        Result(Job job) {
+            this.job = job;
+        }
+    }
+
+    static class Netlist {
+        /** A parsed netlist, circuit is null if it could not be read or is not complete */
+        final CompiledCircuit circuit;
+        final List<String> messages;
+
+        Netlist(CompiledCircuit circuit, List<String> messages) {
+            this.circuit = circuit;
+            this.messages = messages;
+        }
+    }
+
+    BatchRunner(int workers) {
+        this.workers = workers;
+    }
+
+    int netlistsParsed() {  return parsed.get();  }
+
+    static List<Job> readJobs(Path file) throws IOException {
+        /** Reads a job file, a line that is not a valid job throws an IllegalArgumentException
+         */
+        List<Job> jobs = new ArrayList<>();
+        int number = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            number++;
+            int comment = line.indexOf("//");
+            StringTokenizer st = new StringTokenizer(comment < 0 ? line : line.substring(0, comment));
+            if (!st.hasMoreTokens()) {
+                continue;
+            }
+            Job job = new Job(number, st.nextToken());
+            while (st.hasMoreTokens()) {
+                String option = st.nextToken();
+                int eq = option.indexOf('=');
+                String name = eq < 0 ? option : option.substring(0, eq);
+                String value = eq < 0 ? "" : option.substring(eq + 1);
+                if (value.isEmpty()) {
+                    throw error(number, option + ", name=value expected");
+                } else if (name.equals("stimulus")) {
+                    job.stimulus = value;
+                } else if (name.equals("trace")) {
+                    if (!value.equals("none") && value.indexOf(':') < 0) {
+                        throw error(number, value + ", a batch job traces to a file, kind:file");
+                    }
+                    job.trace = value;
+                } else if (name.equals("until")) {
+                    job.limits.endTick = ticks(number, value);
+                } else if (name.equals("steady")) {
+                    job.limits.interval = ticks(number, value);
+                    if (job.limits.interval == 0) {
+                        throw error(number, value + ", time between state checks expected");
+                    }
+                } else if (name.equals("events")) {
+                    try {
+                        job.limits.maxEvents = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw error(number, value + ", number of events expected");
+                    }
+                } else if (name.equals("wall")) {
+                    try {
+                        job.limits.wallNanos = Math.round(Double.parseDouble(value) * 1e9);
+                    } catch (NumberFormatException e) {
+                        throw error(number, value + ", seconds expected");
+                    }
+                } else {
+                    throw error(number, name + " is not a valid job option (stimulus, trace, until, events, wall, steady)");
+                }
+            }
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    private static long ticks(int line, String time) {
+        try {
+            long ticks = Math.round(Double.parseDouble(time) * CompiledCircuit.TICKS_PER_UNIT);
+            if (ticks >= 0) {
+                return ticks;
+            }
+        } catch (NumberFormatException e) {
+            //reported below
+        }
+        throw error(line, time + ", time expected");
+    }
+
+    private static IllegalArgumentException error(int line, String message) {
+        return new IllegalArgumentException("job line " + line + ": " + message);
+    }
+
+    List<Result> run(List<Job> jobs) throws InterruptedException {
+        /** Runs the jobs on the workers, the results are in the order of the jobs
+         */
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Result>> futures = new ArrayList<>(jobs.size());
+            for (Job job : jobs) {
+                futures.add(pool.submit(() -> runJob(job)));
+            }
+            List<Result> results = new ArrayList<>(jobs.size());
+            for (Future<Result> f : futures) {
+                try {
+                    results.add(f.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());  //runJob reports its own errors
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    Result runJob(Job job) {
+        /** Runs one job on this thread, never throws: its errors end up in the messages of the result
+         */
+        Result r = new Result(job);
+        long start = System.nanoTime();
+        try {
+            Netlist netlist = netlist(Paths.get(job.netlist));  //loading logs to the netlist, then to the job
+            r.messages.addAll(netlist.messages);
+            Errors.logTo(r.messages);
+            if (netlist.circuit == null) {
+                Errors.fatal(job.netlist + " cannot be simulated");
+            }
+            TraceSink trace = TraceSink.create(job.trace);
+            try {
+                CompiledSimulation sim = new CompiledSimulation(netlist.circuit, new TimingWheel(), trace);
+                sim.setLimits(job.limits);
+                StimulusReader stimulus = null;
+                if (job.stimulus != null) {
+                    try {
+                        stimulus = new StimulusReader(Paths.get(job.stimulus), netlist.circuit);
+                    } catch (NoSuchFileException e) {
+                        Errors.fatal("The stimulus file is not found!");
+                    }
+                    sim.setStimulus(stimulus);
+                }
+                try {
+                    sim.runSimulation();
+                } catch (UncheckedIOException e) {
+                    Errors.fatal("Cannot read the stimulus: " + e.getCause().getMessage());
+                } finally {
+                    if (stimulus != null) {
+                        stimulus.close();
+                    }
+                }
+                r.events = sim.eventCount;
+            } finally {
+                trace.close();
+            }
+        } catch (FatalError e) {
+            r.failed = true;
+        } catch (IOException e) {
+            r.failed = true;
+            Errors.warn("Cannot write the trace: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            r.failed = true;
+            Errors.warn(e.getMessage());
+        } catch (RuntimeException e) {
+            r.failed = true;
+            Errors.logTo(r.messages);  //it may have come from the netlist, before the job logged
+            Errors.warn("job failed: " + e);
+        } finally {
+            Errors.logTo(null);
+        }
+        r.seconds = (System.nanoTime() - start) / 1e9;
+        return r;
+    }
+
+    Netlist netlist(Path file) {
+        /** The netlist of file from the cache, parsed by the first job to ask for it while the others wait.
+         * The key holds the time the file was modified, so a netlist changed between batches is read again.
+         */
+        String key = file.toAbsolutePath().normalize().toString();
+        try {
+            key += "@" + Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            //not found, load reports it
+        }
+        CompletableFuture<Netlist> entry = new CompletableFuture<>();
+        CompletableFuture<Netlist> cached = cache.putIfAbsent(key, entry);
+        if (cached != null) {
+            return cached.join();
+        }
+        Netlist netlist = null;
+        try {
+            netlist = load(file);
+        } finally {
+            //the other jobs on the file wait for the entry, so it is completed whatever load does
+            entry.complete(netlist != null ? netlist : new Netlist(null, new ArrayList<>()));
+        }
+        return netlist;
+    }
+
+    private Netlist load(Path file) {
+        List<String> messages = new ArrayList<>();
+        Errors.logTo(messages);
+        CompiledCircuit circuit = null;
+        try {
+            if (BinaryNetlist.isBinary(file)) {
+                circuit = BinaryNetlist.load(file);
+            } else {
+                NetlistBuilder netlist = MappedNetlistParser.parse(file);
+                if (netlist.completeness()) {
+                    circuit = netlist.build();
+                }
+            }
+            parsed.incrementAndGet();
+        } catch (FatalError e) {
+            //already logged
+        } catch (NoSuchFileException e) {
+            Errors.warn("The file is not found!");
+        } catch (IOException e) {
+            Errors.warn("Cannot read the file: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            Errors.warn(e.getMessage());
+        } catch (RuntimeException e) {
+            Errors.warn(file + " cannot be loaded: " + e);
+        } finally {
+            Errors.logTo(null);
+        }
+        return new Netlist(circuit, messages);
+    }
+
+    static void writeResults(List<Result> results, double seconds, int netlists, PrintStream out) {
+        /** Writes a line per job, in job order, followed by its messages, then the throughput of the batch
+         */
+        int failed = 0;
+        long events = 0;
+        for (Result r : results) {
+            if (r.failed) {
+                failed++;
+                out.println("job " + r.job.number + " " + r.job.netlist + ": failed");
+            } else {
+                events += r.events;
+                RunLimits limits = r.job.limits;
+                out.printf("job %d %s: %,d events, %s at time %s, %.3f s%n", r.job.number, r.job.netlist, r.events,
+                        limits.reason(), CompiledCircuit.toTime(limits.stopTick), r.seconds);
+            }
+            for (String m : r.messages) {
+                out.println("  " + m);
+            }
+        }
+        out.printf("%d jobs, %d failed, %d netlists parsed, %,d events in %.3f s, %.1f jobs/s%n",
+                results.size(), failed, netlists, events, seconds, results.size() / seconds);
+    }
+
+    static void runBatch(String jobFile, int workers) {
+        /** Runs the jobs of jobFile, as LogicCircuit -batch does
+         */
+        List<Job> jobs = null;
+        try {
+            jobs = readJobs(Paths.get(jobFile));
+        } catch (NoSuchFileException e) {
+            Errors.fatal("The job file is not found!");
+        } catch (IOException e) {
+            Errors.fatal("Cannot read the job file: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            Errors.fatal(e.getMessage());
+        }
+        BatchRunner runner = new BatchRunner(workers);
+        long start = System.nanoTime();
+        List<Result> results = null;
+        try {
+            results = runner.run(jobs);
+        } catch (InterruptedException e) {
+            Errors.fatal("Interrupted");
+        }
+        writeResults(results, (System.nanoTime() - start) / 1e9, runner.netlistsParsed(), System.out);
+    }
+}
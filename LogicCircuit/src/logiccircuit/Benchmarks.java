@@ -0,0 +1,264 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Scanner;
+
+/**
+ * Benchmarks runs the CircuitGenerator workloads at several sizes and reports, per circuit:
+ * parse throughput of LogicCircuit.initCircuit and MappedNetlistParser, events per second and bytes allocated
+ * per event of CompiledSimulation, and for the circuits that settle, the simulated time and the wall time it takes
+ * them to settle and the transitions per second of the object simulation, LogicCircuit.Simulation.
+ * Each measurement is repeated after warmup runs, like a JMH fork with warmup and measurement iterations,
+ * and the mean and the best of the measured runs are reported.
+ *
+ * Usage: Benchmarks [-warmup N] [-iterations N] [-time T] [-scale S] [workload ...]
+ * where the workloads are ripple, lookahead, ring, fanout, dag and clocked-dag, all of them by default,
+ * -time is how long the circuits that do not settle are simulated for and -scale multiplies every size
+ * but the depth of the fanout trees.
+ * @see CircuitGenerator
+ */
+public class Benchmarks {
+    private static int warmup = 3;
+    private static int iterations = 5;
+    private static long simulatedTime = 200;
+
+    interface Workload {
+        CircuitGenerator generate(int size);
+    }
+
+    static class Case {
+        final String name;
+        final int[] sizes;
+        final boolean settles;
+        final Workload workload;
+
+        Case(String name, boolean settles, Workload workload, int... sizes) {
+            this.name = name;
+            this.settles = settles;
+            this.workload = workload;
+            this.sizes = sizes;
+        }
+    }
+
+    static final Case[] CASES = {
+        new Case("ripple", true, n -> CircuitGenerator.rippleCarryAdder(n, 1), 16, 256, 4096),
+        new Case("lookahead", true, n -> CircuitGenerator.carryLookaheadAdder(n, 1), 16, 256, 4096),
+        new Case("ring", false, n -> CircuitGenerator.ringOscillators(n, 11, 1), 10, 100, 1000),
+        new Case("fanout", false, n -> CircuitGenerator.fanoutTree(n, 4, 1), 3, 5, 7),
+        new Case("dag", true, n -> CircuitGenerator.randomDag(n, 64, false, 1), 1000, 10000, 100000),
+        new Case("clocked-dag", false, n -> CircuitGenerator.randomDag(n, 64, true, 1), 1000, 10000, 100000),
+    };
+
+    static class Stat {
+        /** Mean and best of the measured iterations */
+        final boolean higherIsBetter;
+        double sum;
+        double best = Double.NaN;
+        int n;
+
+        Stat(boolean higherIsBetter) {
+            this.higherIsBetter = higherIsBetter;
+        }
+
+        void add(double x) {
+            sum += x;
+            n++;
+            if (Double.isNaN(best) || (higherIsBetter ? x > best : x < best)) {
+                best = x;
+            }
+        }
+
+        String format(String pattern, String unit) {
+            return n == 0 ? "-" : String.format(pattern + " (best " + pattern + ") %s", sum / n, best, unit);
+        }
+
+        String format(String unit) {
+            return format("%,.0f", unit);
+        }
+    }
+
+    interface Iteration {
+        /** Runs the benchmark once, recording its results only if measured, not while warming up */
+        void run(boolean measured) throws IOException;
+    }
+
+    static void measure(Iteration it) throws IOException {
+        for (int i = 0; i < warmup; i++) {
+            it.run(false);
+        }
+        for (int i = 0; i < iterations; i++) {
+            it.run(true);
+        }
+    }
+
+    static long allocatedBytes() {
+        /** Bytes allocated by this thread so far, -1 if the JVM cannot tell */
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    static CompiledCircuit scan(String netlist) {
+        /** Parses a netlist the way LogicCircuit.main does */
+        LogicCircuit.gates.clear();
+        LogicCircuit.wires.clear();
+        LogicCircuit.initCircuit(new Scanner(netlist));
+        if (!LogicCircuit.completeness()) {
+            throw new IllegalStateException("generated netlist is not complete");
+        }
+        return LogicCircuit.compile();
+    }
+
+    static class CountingTraceSink extends NullTraceSink {
+        long count;
+        long lastTick;
+
+        @Override
+        public void gateChanged(long tick, int g, boolean value) {
+            count++;
+            lastTick = Math.max(lastTick, tick);
+        }
+    }
+
+    static class LineCounter extends OutputStream {
+        /** Counts the lines the object simulation prints, one per transition */
+        long lines;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+    }
+
+    static void run(Case c, int size) throws IOException {
+        CircuitGenerator gen = c.workload.generate(size);
+        String netlist = gen.netlist();
+        int lines = gen.lines();
+        CompiledCircuit circuit = scan(netlist);
+        System.out.printf("%n%s %d: %,d gates, %,d wires%n", c.name, size, circuit.gateCount, circuit.wireCount);
+
+        Stat scanner = new Stat(true);
+        measure(measured -> {
+            long start = System.nanoTime();
+            scan(netlist);
+            if (measured) {
+                scanner.add(lines / ((System.nanoTime() - start) / 1e9));
+            }
+        });
+        System.out.println("  initCircuit parse    " + scanner.format("lines/s"));
+
+        Path file = Files.createTempFile("benchmark", ".txt");
+        try {
+            Files.write(file, netlist.getBytes(StandardCharsets.UTF_8));
+            Stat mapped = new Stat(true);
+            measure(measured -> {
+                long start = System.nanoTime();
+                MappedNetlistParser.parse(file).build();
+                if (measured) {
+                    mapped.add(lines / ((System.nanoTime() - start) / 1e9));
+                }
+            });
+            System.out.println("  mapped parse         " + mapped.format("lines/s"));
+        } finally {
+            Files.delete(file);
+        }
+
+        long endKey = c.settles ? Long.MAX_VALUE : CompiledSimulation.wireKey(simulatedTime * CompiledCircuit.TICKS_PER_UNIT);
+        CountingTraceSink last = new CountingTraceSink();
+        Stat rate = new Stat(true);
+        Stat allocation = new Stat(false);
+        Stat settle = new Stat(false);
+        measure(measured -> {
+            CountingTraceSink trace = new CountingTraceSink();
+            CompiledSimulation sim = new CompiledSimulation(circuit, new TimingWheel(), trace);
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            sim.initSimulation();
+            sim.runBefore(endKey);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (measured) {
+                rate.add(sim.eventCount / seconds);
+                allocation.add(bytes < 0 ? 0 : (double) (allocatedBytes() - bytes) / Math.max(1, sim.eventCount));
+                settle.add(seconds * 1e6);
+                last.count = trace.count;
+                last.lastTick = trace.lastTick;
+            }
+        });
+        System.out.println("  compiled simulation  " + rate.format("events/s") + ", "
+                + String.format("%,d transitions", last.count));
+        System.out.println("  allocation           " + allocation.format("%.2f", "bytes/event"));
+        if (!c.settles) {
+            System.out.println("  does not settle, simulated for " + simulatedTime);
+            return;
+        }
+        System.out.println("  latency to settle    " + settle.format("us") + ", settles at time "
+                + CompiledCircuit.toTime(last.lastTick));
+
+        PrintStream out = System.out;
+        LineCounter counter = new LineCounter();
+        Stat object = new Stat(true);
+        try {
+            System.setOut(new PrintStream(counter));
+            measure(measured -> {
+                counter.lines = 0;
+                LogicCircuit.Simulation.resetValues();
+                long start = System.nanoTime();
+                LogicCircuit.Simulation.runSimulation();
+                if (measured) {
+                    object.add(counter.lines / ((System.nanoTime() - start) / 1e9));
+                }
+            });
+        } finally {
+            System.setOut(out);
+        }
+        System.out.println("  object simulation    " + object.format("transitions/s"));
+    }
+
+    public static void main(String[] args) throws IOException {
+        ArrayList<String> selected = new ArrayList<>();
+        double scale = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-warmup") && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-iterations") && i + 1 < args.length) {
+                iterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-time") && i + 1 < args.length) {
+                simulatedTime = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-scale") && i + 1 < args.length) {
+                scale = Double.parseDouble(args[++i]);
+            } else {
+                selected.add(args[i]);
+            }
+        }
+        for (Case c : CASES) {
+            if (!selected.isEmpty() && !selected.contains(c.name)) {
+                continue;
+            }
+            for (int size : c.sizes) {
+                int n = c.name.equals("fanout") ? size : (int) Math.max(1, size * scale);
+                run(c, n);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * BinaryNetlist is the precompiled form of a netlist: the tables of a CompiledCircuit that has already been
+ * parsed and checked, so loading it skips parsing and every check of Wire.checkWire, Gate.setAllInputs and
+ * completeness.  The file is little endian:
+ *
+ *     header     magic (8 bytes), version, header CRC, gate count, wire count, fanin count, fanout count,
+ *                name bytes, file length (8 bytes)
+ *     sections   gate delays, fanin starts, fanin wires, fanout starts, fanout wires, wire sources,
+ *                wire destinations, wire inputs, wire delays, name offsets, as ints,
+ *                then the gate types as bytes and the gate names as UTF-8
+ *
+ * The CRC32 covers the header after itself, so a load checks the header and the file length and maps each
+ * section straight into its table.  Delays are in ticks.
+ * @see CompiledCircuit
+ */
+class BinaryNetlist {
+    static final long MAGIC = 0x54534C544E43434CL;  //"LCCNTLST" read little endian
+    static final int VERSION = 1;
+    static final int HEADER = 48;  //bytes
+
+    private BinaryNetlist() { }
+
+    static boolean isBinary(Path file) throws IOException {
+        /** Whether file starts with the magic of a binary netlist
+         */
+        byte[] start = new byte[8];
+        try (InputStream in = Files.newInputStream(file)) {
+            if (in.read(start) != 8) {
+                return false;
+            }
+        }
+        return ByteBuffer.wrap(start).order(ByteOrder.LITTLE_ENDIAN).getLong() == MAGIC;
+    }
+
+    private static byte[][] names(CompiledCircuit c) {
+        byte[][] names = new byte[c.gateCount][];
+        for (int g = 0; g < c.gateCount; g++) {
+            names[g] = c.gateName[g].getBytes(StandardCharsets.UTF_8);
+        }
+        return names;
+    }
+
+    private static long length(int gateCount, int wireCount, int fanin, int fanout, long nameBytes) {
+        long ints = gateCount + 2L * (gateCount + 1) + fanin + fanout + 4L * wireCount + gateCount + 1;
+        return HEADER + 4 * ints + gateCount + nameBytes;
+    }
+
+    static void write(CompiledCircuit c, Path file) throws IOException {
+        byte[][] names = names(c);
+        long nameBytes = 0;
+        int[] nameStart = new int[c.gateCount + 1];
+        for (int g = 0; g < c.gateCount; g++) {
+            nameStart[g] = (int) nameBytes;
+            nameBytes += names[g].length;
+        }
+        if (nameBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("gate names of over 2 GB");
+        }
+        nameStart[c.gateCount] = (int) nameBytes;
+        int fanin = c.faninWire.length;
+        int fanout = c.fanoutWire.length;
+        long length = length(c.gateCount, c.wireCount, fanin, fanout, nameBytes);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC).putInt(VERSION).putInt(0).putInt(c.gateCount).putInt(c.wireCount).putInt(fanin)
+                .putInt(fanout).putLong(nameBytes).putLong(length);
+        header.putInt(12, headerCrc(header));
+        header.rewind();
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long at = HEADER;
+            at = putInts(ch, at, c.gateDelay);
+            at = putInts(ch, at, c.faninStart);
+            at = putInts(ch, at, c.faninWire);
+            at = putInts(ch, at, c.fanoutStart);
+            at = putInts(ch, at, c.fanoutWire);
+            at = putInts(ch, at, c.wireSource);
+            at = putInts(ch, at, c.wireDest);
+            at = putInts(ch, at, c.wireInput);
+            at = putInts(ch, at, c.wireDelay);
+            at = putInts(ch, at, nameStart);
+            MappedByteBuffer types = ch.map(FileChannel.MapMode.READ_WRITE, at, c.gateCount);
+            types.put(c.gateType);
+            at += c.gateCount;
+            MappedByteBuffer text = ch.map(FileChannel.MapMode.READ_WRITE, at, nameBytes);
+            for (byte[] name : names) {
+                text.put(name);
+            }
+            ch.force(false);
+            ch.write(header, 0);  //last, a file cut short while writing has no valid header
+        }
+    }
+
+    static CompiledCircuit load(Path file) throws IOException {
+        /** Maps a binary netlist into a new CompiledCircuit, checking only its header
+         */
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = header(ch, file);
+            int gateCount = header.getInt(16);
+            int wireCount = header.getInt(20);
+            int fanin = header.getInt(24);
+            int fanout = header.getInt(28);
+            long nameBytes = header.getLong(32);
+
+            CompiledCircuit c = CompiledCircuit.allocate(gateCount, wireCount, fanin, fanout);
+            int[] nameStart = new int[gateCount + 1];
+            long at = HEADER;
+            at = getInts(ch, at, c.gateDelay);
+            at = getInts(ch, at, c.faninStart);
+            at = getInts(ch, at, c.faninWire);
+            at = getInts(ch, at, c.fanoutStart);
+            at = getInts(ch, at, c.fanoutWire);
+            at = getInts(ch, at, c.wireSource);
+            at = getInts(ch, at, c.wireDest);
+            at = getInts(ch, at, c.wireInput);
+            at = getInts(ch, at, c.wireDelay);
+            at = getInts(ch, at, nameStart);
+            ch.map(FileChannel.MapMode.READ_ONLY, at, gateCount).get(c.gateType);
+            at += gateCount;
+            byte[] text = new byte[(int) nameBytes];
+            ch.map(FileChannel.MapMode.READ_ONLY, at, nameBytes).get(text);
+            for (int g = 0; g < gateCount; g++) {
+                c.gateName[g] = new String(text, nameStart[g], nameStart[g + 1] - nameStart[g], StandardCharsets.UTF_8);
+            }
+            return c;
+        }
+    }
+
+    static ByteBuffer header(FileChannel ch, Path file) throws IOException {
+        /** The header of the binary netlist open in ch, after checking its magic, version, CRC and the file length
+         */
+        if (ch.size() < HEADER) {
+            throw new IllegalArgumentException(file + " is not a binary netlist");
+        }
+        ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getLong(0) != MAGIC) {
+            throw new IllegalArgumentException(file + " is not a binary netlist");
+        }
+        if (header.getInt(8) != VERSION) {
+            throw new IllegalArgumentException(file + " is a binary netlist of version " + header.getInt(8)
+                    + ", version " + VERSION + " expected, compile it again");
+        }
+        if (header.getInt(12) != headerCrc(header)) {
+            throw new IllegalArgumentException(file + " has a damaged header");
+        }
+        if (header.getLong(40) != ch.size() || ch.size() != length(header.getInt(16), header.getInt(20),
+                header.getInt(24), header.getInt(28), header.getLong(32))) {
+            throw new IllegalArgumentException(file + " is truncated");
+        }
+        return header;
+    }
+
+    private static int headerCrc(ByteBuffer header) {
+        /** CRC32 of the header after the CRC field */
+        CRC32 crc = new CRC32();
+        ByteBuffer rest = header.duplicate();
+        rest.position(16).limit(HEADER);
+        crc.update(rest);
+        return (int) crc.getValue();
+    }
+
+    private static long putInts(FileChannel ch, long at, int[] table) throws IOException {
+        ch.map(FileChannel.MapMode.READ_WRITE, at, 4L * table.length).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(table);
+        return at + 4L * table.length;
+    }
+
+    private static long getInts(FileChannel ch, long at, int[] table) throws IOException {
+        ch.map(FileChannel.MapMode.READ_ONLY, at, 4L * table.length).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(table);
+        return at + 4L * table.length;
+    }
+}
@@ -0,0 +1,438 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * BitParallelSimulation runs 64 simulations of a CompiledCircuit at once, one per bit of a long.
+ * Every gate and wire value is a long whose bit l is the value in lane l, so evaluating a gate for all lanes
+ * is a single bitwise and, or, xor or not over its inputs.
+ *
+ * Each event carries the mask of the lanes it happens in, so lane l reports exactly the transitions
+ * a CompiledSimulation started from lane l's values would: a gate event only updates and reports the lanes
+ * in its mask, and it schedules its wires for the lanes that changed (every lane of its mask for a not gate,
+ * which always reports, as in the single lane simulation).  The event mask does not fit an event code,
+ * so codes are indexes into a pool of (kind, id, mask) slots.
+ *
+ * The lanes only differ by where they start, set with setInitial or randomInitial, and any lane's trace
+ * can be written by giving it a TraceSink with traceLane.  A stimulus set with setStimulus drives the input gates
+ * of every lane alike, unless it was read per lane and its lines name the lanes they drive.
+ *
+ * Lanes may also differ by a stuck-at fault, set with stickGate or stickWire: the output of a gate or the value
+ * a wire carries is forced in that lane, and lane 0 is left as the good circuit.  Once observe has named the
+ * gates to watch, a faulty lane is detected as soon as one of them ends a key with a value other than lane 0's,
+ * and it is dropped: its events are no longer run, and the run stops once every faulty lane is dropped.
+ * @see FaultSimulator
+ * @see CompiledSimulation
+ * @see RunLimits
+ */
+class BitParallelSimulation implements RunLimits.Bounded {
+    static final int LANES = 64;
+
+    final CompiledCircuit circuit;
+    final long[] gateValue;
+    final long[] wireValue;
+    final EventScheduler eventQueue;
+    private final TraceSink[] laneTrace = new TraceSink[LANES];
+    private long[] gateStuck0;  //lanes in which each gate output is stuck at 0, null without faults
+    private long[] gateStuck1;
+    private long[] wireStuck0;  //lanes in which each wire is stuck at 0
+    private long[] wireStuck1;
+    private boolean[] observed; //gates that detect a fault, null to detect none
+    private StimulusReader stimulus;
+    private long stimulusKey = Long.MAX_VALUE;  //key of the next input change the stimulus has not queued yet
+    private RunLimits limits;   //null to run until the event queue is empty
+    long live = -1L;      //lanes still run, a faulty lane leaves once it is detected
+    long detected;        //faulty lanes detected so far
+    long now;             //key of the event being run
+    long eventCount;      //events run so far
+    long laneEventCount;  //events run so far counted once per lane, what 64 single lane simulations would run
+
+    /** Event slots, the event code in the scheduler is the slot index */
+    private long[] slotCode = new long[256];  //(id << ID_SHIFT | kind) as in CompiledSimulation
+    private long[] slotMask = new long[256];
+    private int[] freeSlot = new int[256];
+    private int freeCount;
+    private int slotsUsed;
+
+    /** Reports of the current key, sorted by gate before they are passed to the lane traces */
+    private long[] reportOrder = new long[16];  //gate << 32 | report index
+    private long[] reportMask = new long[16];
+    private long[] reportValue = new long[16];
+    private int reportCount;
+
+    BitParallelSimulation(CompiledCircuit circuit, EventScheduler eventQueue) {
+        this.circuit = circuit;
+        this.eventQueue = eventQueue;
+        gateValue = new long[circuit.gateCount];
+        wireValue = new long[circuit.wireCount];
+    }
+
+    void traceLane(int lane, TraceSink sink) {
+        /** Writes the transitions of one lane to sink, lanes without a sink are not traced */
+        if (lane < 0 || lane >= LANES) {
+            throw new IllegalArgumentException(lane + " is not a lane (0 to " + (LANES - 1) + ")");
+        }
+        laneTrace[lane] = sink;
+    }
+
+    void setInitial(int g, long lanes) {
+        /** Starts gate g, and the wires it drives, with value bit l in lane l */
+        gateValue[g] = lanes;
+        for (int i = circuit.fanoutStart[g]; i < circuit.fanoutStart[g + 1]; i++) {
+            wireValue[circuit.fanoutWire[i]] = lanes;
+        }
+    }
+
+    void stickGate(int g, int lane, boolean value) {
+        /** Forces the output of gate g to value in lane, which is then a faulty lane */
+        stick(lane);
+        (value ? gateStuck1 : gateStuck0)[g] |= 1L << lane;
+    }
+
+    void stickWire(int w, int lane, boolean value) {
+        /** Forces the value wire w carries to its gate to value in lane, which is then a faulty lane */
+        stick(lane);
+        (value ? wireStuck1 : wireStuck0)[w] |= 1L << lane;
+    }
+
+    private void stick(int lane) {
+        if (lane < 1 || lane >= LANES) {
+            throw new IllegalArgumentException(lane + " is not a faulty lane (1 to " + (LANES - 1) + ")");
+        }
+        if (gateStuck0 == null) {
+            gateStuck0 = new long[circuit.gateCount];
+            gateStuck1 = new long[circuit.gateCount];
+            wireStuck0 = new long[circuit.wireCount];
+            wireStuck1 = new long[circuit.wireCount];
+            live = 1L;
+        }
+        live |= 1L << lane;
+    }
+
+    void observe(boolean[] gates) {
+        /** Detects the faulty lanes at the gates set in gates, before the simulation is run */
+        observed = gates;
+    }
+
+    void setStimulus(StimulusReader stimulus) {
+        /** Drives the input gates of every lane from stimulus, which is read as the simulation reaches it
+         * @see CompiledSimulation#setStimulus(StimulusReader)
+         */
+        this.stimulus = stimulus;
+        stimulusKey = stimulus.nextKey();
+    }
+
+    void setLimits(RunLimits limits) {
+        /** Bounds the simulation by time, events or wall clock, or stops it once it repeats itself,
+         * before the simulation is run
+         * @see RunLimits
+         */
+        this.limits = limits;
+    }
+
+    void randomInitial(long seed) {
+        /** Starts every lane but lane 0 from random gate values, lane 0 keeps the all false start of
+         * the single lane simulation
+         */
+        Random r = new Random(seed);
+        for (int g = 0; g < circuit.gateCount; g++) {
+            setInitial(g, r.nextLong() & ~1L);
+        }
+    }
+
+    public void runSimulation() throws IOException {
+        /** Initializes the simulation and then runs it until the event queue is empty
+         */
+        for (TraceSink t : laneTrace) {
+            if (t != null) {
+                t.begin(circuit);
+            }
+        }
+        initSimulation();
+        run();
+        for (TraceSink t : laneTrace) {
+            if (t != null) {
+                t.flush();
+            }
+        }
+    }
+
+    public void initSimulation() {
+        /** Every lane evaluates its not, nand and nor gates first, as the single lane simulation does.
+         * The other gates are evaluated as well in the lanes where their output or one of their input wires
+         * is stuck, a wire stuck at 1 carries it from the start
+         */
+        CompiledCircuit c = circuit;
+        for (int g = 0; g < c.gateCount; g++) {
+            if (CompiledCircuit.startsHigh(c.gateType[g])) {
+                schedule(CompiledSimulation.gateKey(0), CompiledSimulation.gateEvent(g), -1L);
+            }
+        }
+        if (gateStuck0 == null) {
+            return;
+        }
+        long[] stuck = new long[c.gateCount];
+        for (int g = 0; g < c.gateCount; g++) {
+            stuck[g] = gateStuck0[g] | gateStuck1[g];
+        }
+        for (int w = 0; w < c.wireCount; w++) {
+            wireValue[w] |= wireStuck1[w];
+            stuck[c.wireDest[w]] |= wireStuck1[w];
+        }
+        for (int g = 0; g < c.gateCount; g++) {
+            if (stuck[g] != 0 && !CompiledCircuit.startsHigh(c.gateType[g])) {
+                schedule(CompiledSimulation.gateKey(0), CompiledSimulation.gateEvent(g), stuck[g]);
+            }
+        }
+    }
+
+    void run() throws IOException {
+        if (limits == null) {
+            runBefore(Long.MAX_VALUE);
+        } else {
+            limits.run(this);
+        }
+    }
+
+    void runBefore(long endKey) throws IOException {
+        runBefore(endKey, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void runBefore(long endKey, long eventLimit) throws IOException {
+        /** Runs the events whose keys are before endKey, or until every faulty lane is dropped, queueing the next
+         * batch of the stimulus whenever the simulation reaches the input changes it has not queued yet.
+         * It also stops once eventCount reaches eventLimit, holding the transitions of the key it is in,
+         * as CompiledSimulation.runBefore does
+         */
+        while (live != 1L) {
+            long key = eventQueue.isEmpty() ? Long.MAX_VALUE : eventQueue.peekTime();
+            if (stimulusKey <= key && stimulusKey < endKey) {
+                stimulusKey = stimulus.feed(this);
+                continue;
+            }
+            if (key >= endKey) {
+                break;
+            }
+            if (eventCount >= eventLimit) {
+                return;
+            }
+            int slot = (int) eventQueue.poll();
+            if (key != now) {
+                flushTrace();
+                now = key;
+            }
+            long code = slotCode[slot];
+            long mask = slotMask[slot] & live;
+            freeSlot[freeCount++] = slot;
+            if (mask == 0) {
+                continue;  //every lane of the event was dropped
+            }
+            eventCount++;
+            laneEventCount += Long.bitCount(mask);
+            int kind = CompiledSimulation.eventKind(code);
+            if (kind == CompiledSimulation.GATE_EVENT) {
+                runGateEvent(CompiledSimulation.eventId(code), mask);
+            } else if (kind == CompiledSimulation.INPUT_EVENT) {
+                changeGate(CompiledSimulation.eventId(code), mask, CompiledSimulation.eventValue(code) ? -1L : 0);
+            } else {
+                runWireEvent(CompiledSimulation.eventId(code), mask);
+            }
+        }
+        flushTrace();
+    }
+
+    @Override
+    public long pendingKey() {
+        /** The key of the next event or input change, Long.MAX_VALUE once settled or every faulty lane is dropped */
+        if (live == 1L) {
+            return Long.MAX_VALUE;
+        }
+        return Math.min(eventQueue.isEmpty() ? Long.MAX_VALUE : eventQueue.peekTime(), stimulusKey);
+    }
+
+    @Override
+    public boolean stimulusDone() {  return stimulusKey == Long.MAX_VALUE;  }
+
+    @Override
+    public long eventCount() {  return eventCount;  }
+
+    @Override
+    public long now() {  return now;  }
+
+    @Override
+    public long[] state(long tick) {
+        /** The state of CompiledSimulation.state for every lane at once: the gate and wire values and the queued
+         * events with the lanes still live in their masks, times relative to tick
+         * @see CompiledSimulation#state(long)
+         */
+        int gates = circuit.gateCount;
+        int wires = circuit.wireCount;
+        long[] state = new long[gates + wires + 3 * eventQueue.size()];
+        System.arraycopy(gateValue, 0, state, 0, gates);
+        System.arraycopy(wireValue, 0, state, gates, wires);
+        int[] next = {gates + wires};
+        long base = CompiledSimulation.wireKey(tick);
+        eventQueue.forEach((time, slot) -> {
+            state[next[0]++] = time - base;
+            state[next[0]++] = slotCode[(int) slot];
+            state[next[0]++] = slotMask[(int) slot] & live;
+        });
+        return state;
+    }
+
+    void scheduleInput(long key, long code, long lanes) {
+        /** Queues an input event of the stimulus for the lanes set in lanes */
+        schedule(key, code, lanes);
+    }
+
+    private void schedule(long key, long code, long mask) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlot[--freeCount];
+        } else {
+            if (slotsUsed == slotCode.length) {
+                slotCode = Arrays.copyOf(slotCode, slotsUsed * 2);
+                slotMask = Arrays.copyOf(slotMask, slotsUsed * 2);
+                freeSlot = Arrays.copyOf(freeSlot, slotsUsed * 2);
+            }
+            slot = slotsUsed++;
+        }
+        slotCode[slot] = code;
+        slotMask[slot] = mask;
+        eventQueue.add(Math.max(key, now), slot);
+    }
+
+    private void runGateEvent(int g, long mask) {
+        /** Evaluates gate g in the lanes of mask, the bitwise form of CompiledSimulation.runGateEvent
+         */
+        CompiledCircuit c = circuit;
+        int first = c.faninStart[g];
+        int last = c.faninStart[g + 1];
+        long value;
+        switch (c.gateType[g]) {
+            case CompiledCircuit.AND:
+                value = -1L;
+                for (int i = first; i < last; i++)
+                    value &= wireValue[c.faninWire[i]];
+                break;
+            case CompiledCircuit.OR:
+                value = 0;
+                for (int i = first; i < last; i++)
+                    value |= wireValue[c.faninWire[i]];
+                break;
+            case CompiledCircuit.NAND:
+                value = -1L;
+                for (int i = first; i < last; i++)
+                    value &= wireValue[c.faninWire[i]];
+                value = ~value;
+                break;
+            case CompiledCircuit.NOR:
+                value = 0;
+                for (int i = first; i < last; i++)
+                    value |= wireValue[c.faninWire[i]];
+                value = ~value;
+                break;
+            case CompiledCircuit.XOR:
+                value = 0;
+                for (int i = first; i < last; i++)
+                    value ^= wireValue[c.faninWire[i]];
+                break;
+            case CompiledCircuit.INPUT:
+                value = gateValue[g];  //an input gate keeps the value its stimulus set
+                break;
+            default:
+                value = ~wireValue[c.faninWire[first]];
+        }
+        changeGate(g, mask, value);
+    }
+
+    private void changeGate(int g, long mask, long value) {
+        /** Gives gate g its newly evaluated value in the lanes of mask, the changes are reported and passed on
+         * to its out wires
+         */
+        CompiledCircuit c = circuit;
+        if (gateStuck0 != null) {
+            value = (value & ~gateStuck0[g]) | gateStuck1[g];
+        }
+        //A not gate always reports its value, the other gates only report the lanes that change
+        long fire = c.gateType[g] == CompiledCircuit.NOT ? mask : mask & (value ^ gateValue[g]);
+        if (fire == 0) {
+            return;
+        }
+        gateValue[g] = (gateValue[g] & ~fire) | (value & fire);
+        report(g, fire, value);
+        long totalDelay = CompiledSimulation.tickOf(now) + c.gateDelay[g];
+        for (int i = c.fanoutStart[g]; i < c.fanoutStart[g + 1]; i++) {
+            schedule(CompiledSimulation.wireKey(totalDelay), CompiledSimulation.wireEvent(c.fanoutWire[i]), fire);
+        }
+    }
+
+    private void runWireEvent(int w, long mask) {
+        /** Copies the lanes of mask from the source gate onto wire w and schedules its destination gate
+         */
+        CompiledCircuit c = circuit;
+        long value = gateValue[c.wireSource[w]];
+        if (wireStuck0 != null) {
+            value = (value & ~wireStuck0[w]) | wireStuck1[w];
+        }
+        wireValue[w] = (wireValue[w] & ~mask) | (value & mask);
+        schedule(CompiledSimulation.gateKey(CompiledSimulation.tickOf(now) + c.wireDelay[w]),
+                CompiledSimulation.gateEvent(c.wireDest[w]), mask);
+    }
+
+    private void report(int g, long mask, long value) {
+        if (reportCount == reportOrder.length) {
+            reportOrder = Arrays.copyOf(reportOrder, reportCount * 2);
+            reportMask = Arrays.copyOf(reportMask, reportCount * 2);
+            reportValue = Arrays.copyOf(reportValue, reportCount * 2);
+        }
+        reportOrder[reportCount] = (long) g << 32 | reportCount;
+        reportMask[reportCount] = mask;
+        reportValue[reportCount] = value;
+        reportCount++;
+    }
+
+    private void flushTrace() throws IOException {
+        /** Passes what the current key reported to the traced lanes, in gate id order like CompiledSimulation
+         */
+        if (reportCount == 0) {
+            return;
+        }
+        if (observed != null) {
+            detect();
+        }
+        Arrays.sort(reportOrder, 0, reportCount);
+        long tick = CompiledSimulation.tickOf(now);
+        for (int lane = 0; lane < LANES; lane++) {
+            TraceSink t = laneTrace[lane];
+            if (t == null) {
+                continue;
+            }
+            for (int i = 0; i < reportCount; i++) {
+                int r = (int) reportOrder[i];
+                if ((reportMask[r] >>> lane & 1) != 0) {
+                    int g = (int) (reportOrder[i] >>> 32);
+                    t.gateChanged(tick + circuit.gateDelay[g], g, (reportValue[r] >>> lane & 1) != 0);
+                }
+            }
+        }
+        reportCount = 0;
+    }
+
+    private void detect() {
+        /** Drops the faulty lanes in which an observed gate that reported at the current key now differs from lane 0
+         */
+        for (int i = 0; i < reportCount; i++) {
+            int g = (int) (reportOrder[i] >>> 32);
+            if (observed[g]) {
+                long value = gateValue[g];
+                long differ = (value ^ -(value & 1)) & live & ~1L;
+                detected |= differ;
+                live &= ~differ;
+            }
+        }
+    }
+}
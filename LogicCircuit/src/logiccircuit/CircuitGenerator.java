@@ -0,0 +1,212 @@
+package com.rwedoff;
+
+import java.util.Random;
+
+/**
+ * CircuitGenerator writes netlists of standard benchmark circuits in the input language.
+ * The language has no primary inputs, so values come from gates: a constant zero is an and gate fed by itself,
+ * which never gets an event and stays false, a constant one is a not gate fed by a zero, and a clock is a
+ * not gate fed by itself, which toggles every gate delay + wire delay.
+ * Adders and random DAGs are fed random constants and settle; ring oscillators and fanout trees never do.
+ * Gate delays are random between 0.5 and 1.5 and wire delays between 0.1 and 0.3, both from the seed.
+ * @see Benchmarks
+ */
+class CircuitGenerator {
+    private final StringBuilder sb = new StringBuilder();
+    private final Random random;
+    private int gates;
+    private int lines;
+    private String zero;
+    private String one;
+
+    CircuitGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    String netlist() {  return sb.toString();  }
+    int lines() {  return lines;  }
+
+    private static String hundredths(int n) {
+        return n / 100 + (n % 100 < 10 ? ".0" : ".") + n % 100;
+    }
+
+    private String gate(String type) {
+        String name = "g" + gates++;
+        sb.append("gate ").append(type).append(' ').append(name).append(' ')
+                .append(hundredths(50 + random.nextInt(101))).append('\n');
+        lines++;
+        return name;
+    }
+
+    private void wire(String from, String to, String input) {
+        sb.append("wire ").append(from).append(' ').append(to).append(' ').append(input).append(' ')
+                .append(hundredths(10 + random.nextInt(21))).append('\n');
+        lines++;
+    }
+
+    String and(String a, String b) {
+        String g = gate("and");
+        wire(a, g, "in1");
+        wire(b, g, "in2");
+        return g;
+    }
+
+    String or(String a, String b) {
+        String g = gate("or");
+        wire(a, g, "in1");
+        wire(b, g, "in2");
+        return g;
+    }
+
+    String not(String a) {
+        String g = gate("not");
+        wire(a, g, "in");
+        return g;
+    }
+
+    String xor(String a, String b) {
+        return and(or(a, b), not(and(a, b)));
+    }
+
+    String zero() {
+        if (zero == null) {
+            zero = gate("and");
+            wire(zero, zero, "in1");
+            wire(zero, zero, "in2");
+        }
+        return zero;
+    }
+
+    String one() {
+        if (one == null) {
+            one = not(zero());
+        }
+        return one;
+    }
+
+    String constant() {
+        return random.nextBoolean() ? one() : zero();
+    }
+
+    String clock() {
+        String g = gate("not");
+        wire(g, g, "in");
+        return g;
+    }
+
+    String[] constants(int n) {
+        String[] bits = new String[n];
+        for (int i = 0; i < n; i++) {
+            bits[i] = constant();
+        }
+        return bits;
+    }
+
+    static CircuitGenerator rippleCarryAdder(int bits, long seed) {
+        /** An n bit ripple carry adder of random constant operands, built from full adders
+         */
+        CircuitGenerator c = new CircuitGenerator(seed);
+        String[] a = c.constants(bits);
+        String[] b = c.constants(bits);
+        String carry = c.zero();
+        for (int i = 0; i < bits; i++) {
+            String p = c.xor(a[i], b[i]);
+            c.xor(p, carry);                                  //sum bit i
+            carry = c.or(c.and(a[i], b[i]), c.and(p, carry));
+        }
+        return c;
+    }
+
+    static CircuitGenerator carryLookaheadAdder(int bits, long seed) {
+        /** An n bit carry lookahead adder of random constant operands.  The carries come from a Kogge-Stone
+         * parallel prefix over the (generate, propagate) pairs, so the carry chain is log2(n) levels deep
+         */
+        CircuitGenerator c = new CircuitGenerator(seed);
+        String[] a = c.constants(bits);
+        String[] b = c.constants(bits);
+        String[] p = new String[bits];
+        String[] g = new String[bits];
+        for (int i = 0; i < bits; i++) {
+            p[i] = c.xor(a[i], b[i]);
+            g[i] = c.and(a[i], b[i]);
+        }
+        String[] gg = g.clone();
+        String[] pp = p.clone();
+        for (int span = 1; span < bits; span *= 2) {
+            String[] ng = gg.clone();
+            String[] np = pp.clone();
+            for (int i = span; i < bits; i++) {
+                ng[i] = c.or(gg[i], c.and(pp[i], gg[i - span]));
+                np[i] = c.and(pp[i], pp[i - span]);
+            }
+            gg = ng;
+            pp = np;
+        }
+        c.xor(p[0], c.zero());
+        for (int i = 1; i < bits; i++) {
+            c.xor(p[i], gg[i - 1]);  //sum bit i, the carry into bit i is the group generate of bits 0 to i-1
+        }
+        return c;
+    }
+
+    static CircuitGenerator ringOscillators(int rings, int length, long seed) {
+        /** rings independent rings of length not gates, length is made odd so every ring oscillates
+         */
+        CircuitGenerator c = new CircuitGenerator(seed);
+        length |= 1;
+        for (int r = 0; r < rings; r++) {
+            String first = c.gate("not");
+            String last = first;
+            for (int i = 1; i < length; i++) {
+                last = c.not(last);
+            }
+            c.wire(last, first, "in");
+        }
+        return c;
+    }
+
+    static CircuitGenerator fanoutTree(int depth, int fanout, long seed) {
+        /** A clock driving a tree of not gates, every gate drives fanout gates on the next level
+         */
+        CircuitGenerator c = new CircuitGenerator(seed);
+        String[] level = {c.clock()};
+        for (int d = 0; d < depth; d++) {
+            String[] next = new String[level.length * fanout];
+            for (int i = 0; i < next.length; i++) {
+                next[i] = c.not(level[i / fanout]);
+            }
+            level = next;
+        }
+        return c;
+    }
+
+    static CircuitGenerator randomDag(int size, int sources, boolean clocked, long seed) {
+        /** size random and, or and not gates, each fed by gates made before it, over sources random constants
+         * or, if clocked, clocks.  Later gates prefer recent ones so the DAG gets deep as well as wide
+         */
+        CircuitGenerator c = new CircuitGenerator(seed);
+        String[] made = new String[sources + size];
+        for (int i = 0; i < sources; i++) {
+            made[i] = clocked ? c.clock() : c.constant();
+        }
+        for (int i = sources; i < made.length; i++) {
+            String a = made[c.pick(i)];
+            switch (c.random.nextInt(3)) {
+                case 0:
+                    made[i] = c.and(a, made[c.pick(i)]);
+                    break;
+                case 1:
+                    made[i] = c.or(a, made[c.pick(i)]);
+                    break;
+                default:
+                    made[i] = c.not(a);
+            }
+        }
+        return c;
+    }
+
+    private int pick(int below) {
+        int back = 1 + (int) Math.abs(random.nextGaussian() * 16);
+        return back <= below ? below - back : random.nextInt(below);
+    }
+}
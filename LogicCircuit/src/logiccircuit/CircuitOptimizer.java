@@ -0,0 +1,258 @@
+package com.rwedoff;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * CircuitOptimizer removes the gates and wires a simulation of a CompiledCircuit can do without, so it runs
+ * fewer events, while every gate it is asked to keep reports the same changes at the same times:
+ *
+ * Constants: the and, or and xor gates that can never leave the false they start at, like the and gate wired to
+ * itself CircuitGenerator uses as a zero, are found as the largest set of such gates where every and gate has an
+ * input from the set and every or and xor gate only has inputs from it.  They never report anything and their
+ * wires are always false, so a constant input of an or, xor or nor gate is dropped, unless it is the last one.
+ *
+ * Dead gates: a gate from which no kept gate can be reached has no effect on the trace that is kept.
+ * Input gates are always kept, a stimulus may name them, and a constant is never kept for its own sake.
+ *
+ * Pairs of not gates are left as they are.  A wire takes its source's value when its wire event runs and its delay
+ * only holds back the evaluation of its destination, so a wire as long as the pair it replaces shows that value
+ * early to a destination another input wakes up, and every not gate puts out a pulse at time 0 that no wire does.
+ *
+ * The gates and wires left keep their order, and the circuit is built again with CompiledCircuit.assemble.
+ * @see CompiledCircuit#assemble
+ */
+class CircuitOptimizer {
+    final CompiledCircuit circuit;
+    int constantGates;      //removed
+    int deadGates;
+    int removedWires;       //wires of the circuit less wires of the result
+
+    /** The circuit as it is edited */
+    private final int wireCount;
+    private final int[] source;
+    private final int[] dest;
+    private final int[] delay;
+    private final boolean[] wireAlive;
+    private final int[] faninWire;   //per input, as in the circuit, -1 once the input is dropped
+    private final boolean[] gateAlive;
+
+    CircuitOptimizer(CompiledCircuit circuit) {
+        this.circuit = circuit;
+        int n = circuit.gateCount;
+        wireCount = circuit.wireCount;
+        source = Arrays.copyOf(circuit.wireSource, wireCount);
+        dest = Arrays.copyOf(circuit.wireDest, wireCount);
+        delay = Arrays.copyOf(circuit.wireDelay, wireCount);
+        wireAlive = new boolean[wireCount];
+        Arrays.fill(wireAlive, true);
+        faninWire = circuit.faninWire.clone();
+        gateAlive = new boolean[n];
+        Arrays.fill(gateAlive, true);
+    }
+
+    static int[] gateIds(CompiledCircuit circuit, List<String> names) {
+        /** The ids of the named gates, an unknown name throws an IllegalArgumentException */
+        HashMap<String, Integer> ids = new HashMap<>();
+        for (int g = 0; g < circuit.gateCount; g++) {
+            ids.put(circuit.gateName[g], g);
+        }
+        int[] gates = new int[names.size()];
+        for (int i = 0; i < gates.length; i++) {
+            Integer g = ids.get(names.get(i));
+            if (g == null) {
+                throw new IllegalArgumentException(names.get(i) + " is not a gate to keep");
+            }
+            gates[i] = g;
+        }
+        return gates;
+    }
+
+    CompiledCircuit optimize(int[] keep) {
+        /** The optimized circuit, keeping the gates of keep, or every gate if keep is null
+         */
+        boolean[] constant = constants();
+        dropConstantInputs(constant);
+        boolean[] live = new boolean[circuit.gateCount];
+        int[] stack = new int[circuit.gateCount];
+        int top = 0;
+        for (int g = 0; g < circuit.gateCount; g++) {
+            if (gateAlive[g] && (keep == null && !constant[g] || circuit.gateType[g] == CompiledCircuit.INPUT)) {
+                live[g] = true;
+                stack[top++] = g;
+            }
+        }
+        if (keep != null) {
+            for (int g : keep) {
+                if (gateAlive[g] && !constant[g] && !live[g]) {
+                    live[g] = true;
+                    stack[top++] = g;
+                }
+            }
+        }
+        while (top > 0) {
+            int g = stack[--top];
+            for (int i = circuit.faninStart[g]; i < circuit.faninStart[g + 1]; i++) {
+                int w = faninWire[i];
+                if (w >= 0 && !live[source[w]]) {
+                    live[source[w]] = true;
+                    stack[top++] = source[w];
+                }
+            }
+        }
+        for (int g = 0; g < circuit.gateCount; g++) {
+            if (gateAlive[g] && !live[g]) {
+                gateAlive[g] = false;
+                if (constant[g]) {
+                    constantGates++;
+                } else {
+                    deadGates++;
+                }
+            }
+        }
+        return build();
+    }
+
+    private boolean[] constants() {
+        /** The gates that never leave false: the largest set in which every and gate has an input from the set
+         * and every or and xor gate has all of its inputs from it, found by taking out the gates that break that
+         * until none do
+         */
+        CompiledCircuit c = circuit;
+        int n = c.gateCount;
+        boolean[] constant = new boolean[n];
+        int[] fromConstant = new int[n];
+        for (int g = 0; g < n; g++) {
+            byte t = c.gateType[g];
+            constant[g] = t == CompiledCircuit.AND || t == CompiledCircuit.OR || t == CompiledCircuit.XOR;
+        }
+        for (int w = 0; w < c.wireCount; w++) {
+            if (constant[c.wireSource[w]]) {
+                fromConstant[c.wireDest[w]]++;
+            }
+        }
+        int[] stack = new int[n];
+        int top = 0;
+        for (int g = 0; g < n; g++) {
+            if (constant[g] && !staysFalse(g, fromConstant[g])) {
+                constant[g] = false;
+                stack[top++] = g;
+            }
+        }
+        while (top > 0) {
+            int g = stack[--top];
+            for (int i = c.fanoutStart[g]; i < c.fanoutStart[g + 1]; i++) {
+                int d = c.wireDest[c.fanoutWire[i]];
+                fromConstant[d]--;
+                if (constant[d] && !staysFalse(d, fromConstant[d])) {
+                    constant[d] = false;
+                    stack[top++] = d;
+                }
+            }
+        }
+        return constant;
+    }
+
+    private boolean staysFalse(int g, int fromConstant) {
+        int inputs = circuit.faninStart[g + 1] - circuit.faninStart[g];
+        return circuit.gateType[g] == CompiledCircuit.AND ? fromConstant > 0 : fromConstant == inputs;
+    }
+
+    private void dropConstantInputs(boolean[] constant) {
+        /** Drops the always false inputs of the or, xor and nor gates that are not constant, but their last one
+         */
+        CompiledCircuit c = circuit;
+        for (int g = 0; g < c.gateCount; g++) {
+            byte t = c.gateType[g];
+            if (constant[g] || t != CompiledCircuit.OR && t != CompiledCircuit.XOR && t != CompiledCircuit.NOR) {
+                continue;
+            }
+            int left = c.faninStart[g + 1] - c.faninStart[g];
+            for (int i = c.faninStart[g]; i < c.faninStart[g + 1] && left > 1; i++) {
+                int w = faninWire[i];
+                if (constant[source[w]]) {
+                    removeWire(w);
+                    faninWire[i] = -1;
+                    left--;
+                }
+            }
+        }
+    }
+
+    private void removeWire(int w) {
+        wireAlive[w] = false;
+    }
+
+    private CompiledCircuit build() {
+        /** The circuit of the gates and wires still alive, in the order they had, inputs numbered again
+         * without the ones dropped
+         */
+        CompiledCircuit c = circuit;
+        int[] newGate = new int[c.gateCount];
+        int gates = 0;
+        for (int g = 0; g < c.gateCount; g++) {
+            newGate[g] = gateAlive[g] ? gates++ : -1;
+        }
+        int[] newWire = new int[wireCount];
+        int wires = 0;
+        for (int w = 0; w < wireCount; w++) {
+            boolean alive = wireAlive[w] && gateAlive[source[w]] && gateAlive[dest[w]];
+            newWire[w] = alive ? wires++ : -1;
+        }
+        String[] name = new String[gates];
+        byte[] type = new byte[gates];
+        int[] gateDelay = new int[gates];
+        int[] faninStart = new int[gates + 1];
+        int fanin = 0;
+        for (int g = 0; g < c.gateCount; g++) {
+            if (gateAlive[g]) {
+                for (int i = c.faninStart[g]; i < c.faninStart[g + 1]; i++) {
+                    fanin += faninWire[i] >= 0 ? 1 : 0;
+                }
+            }
+        }
+        int[] fanins = new int[fanin];
+        int[] wireSource = new int[wires];
+        int[] wireDest = new int[wires];
+        int[] wireInput = new int[wires];
+        int[] wireDelay = new int[wires];
+        fanin = 0;
+        for (int g = 0; g < c.gateCount; g++) {
+            int ng = newGate[g];
+            if (ng < 0) {
+                continue;
+            }
+            name[ng] = c.gateName[g];
+            type[ng] = c.gateType[g];
+            gateDelay[ng] = c.gateDelay[g];
+            faninStart[ng] = fanin;
+            for (int i = c.faninStart[g]; i < c.faninStart[g + 1]; i++) {
+                int w = faninWire[i];
+                if (w >= 0) {
+                    int nw = newWire[w];
+                    wireInput[nw] = fanin - faninStart[ng];
+                    fanins[fanin++] = nw;
+                }
+            }
+        }
+        faninStart[gates] = fanin;
+        for (int w = 0; w < wireCount; w++) {
+            int nw = newWire[w];
+            if (nw >= 0) {
+                wireSource[nw] = newGate[source[w]];
+                wireDest[nw] = newGate[dest[w]];
+                wireDelay[nw] = delay[w];
+            }
+        }
+        removedWires = c.wireCount - wires;
+        return CompiledCircuit.assemble(name, type, gateDelay, faninStart, fanins, wireSource, wireDest, wireInput, wireDelay);
+    }
+
+    void writeSummary(PrintStream out, CompiledCircuit optimized) {
+        out.println("Optimized: removed " + (circuit.gateCount - optimized.gateCount) + " gates and " + removedWires + " wires ("
+                + constantGates + " constant, " + deadGates + " dead), "
+                + optimized.gateCount + " gates and " + optimized.wireCount + " wires left");
+    }
+}
@@ -0,0 +1,158 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * CompactCircuit is a CompiledCircuit kept off the heap, for circuits too large for Java objects and arrays:
+ * the sections of a binary netlist are mapped straight from the file and never copied, so loading costs no heap
+ * at all and the operating system pages the tables in as the simulation reaches them.
+ * A table may be over 2 GB, so it is mapped as chunks of 2^28 ints.
+ *
+ * The gate names stay on disk too: the name offsets and the UTF-8 names of the file are the symbol table,
+ * and gateName decodes a name only when a trace prints it.  Only the tables the simulation reads are mapped.
+ * @see BinaryNetlist
+ * @see CompactSimulation
+ */
+class CompactCircuit implements GateIndex {
+    final int gateCount;
+    final int wireCount;
+
+    /** Per gate tables, as in CompiledCircuit */
+    final Ints gateDelay;
+    final Ints faninStart;
+    final Ints fanoutStart;
+    final Ints fanoutWire;
+    private final ByteBuffer gateType;
+
+    /** Per wire tables */
+    final Ints wireSource;
+    final Ints wireDest;
+    final Ints wireDelay;
+
+    /** The symbol table: the name of gate g is the bytes nameStart[g] .. nameStart[g+1] of names */
+    private final Ints nameStart;
+    private final ByteBuffer names;
+
+    private CompactCircuit(FileChannel ch, ByteBuffer header) throws IOException {
+        gateCount = header.getInt(16);
+        wireCount = header.getInt(20);
+        int fanin = header.getInt(24);
+        int fanout = header.getInt(28);
+        long nameBytes = header.getLong(32);
+        long at = BinaryNetlist.HEADER;
+        gateDelay = Ints.map(ch, at, gateCount);
+        at += 4L * gateCount;
+        faninStart = Ints.map(ch, at, gateCount + 1L);
+        at += 4L * (gateCount + 1L + fanin);   //the fanin wires are not needed, a gate counts its inputs at 1
+        fanoutStart = Ints.map(ch, at, gateCount + 1L);
+        at += 4L * (gateCount + 1L);
+        fanoutWire = Ints.map(ch, at, fanout);
+        at += 4L * fanout;
+        wireSource = Ints.map(ch, at, wireCount);
+        at += 4L * wireCount;
+        wireDest = Ints.map(ch, at, wireCount);
+        at += 8L * wireCount;                  //nor the wire inputs
+        wireDelay = Ints.map(ch, at, wireCount);
+        at += 4L * wireCount;
+        nameStart = Ints.map(ch, at, gateCount + 1L);
+        at += 4L * (gateCount + 1L);
+        gateType = ch.map(FileChannel.MapMode.READ_ONLY, at, gateCount);
+        at += gateCount;
+        names = ch.map(FileChannel.MapMode.READ_ONLY, at, nameBytes);
+    }
+
+    static CompactCircuit map(Path file) throws IOException {
+        /** Maps a binary netlist, checking only its header as BinaryNetlist.load does.
+         * The mappings stay valid once the file is closed
+         * @see BinaryNetlist#load(Path)
+         */
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new CompactCircuit(ch, BinaryNetlist.header(ch, file));
+        }
+    }
+
+    @Override
+    public int gateCount() {  return gateCount;  }
+    @Override
+    public int gateDelay(int g) {  return gateDelay.get(g);  }
+
+    @Override
+    public String gateName(int g) {
+        /** Reads the name of gate g from the symbol table */
+        byte[] name = new byte[nameStart.get(g + 1) - nameStart.get(g)];
+        ByteBuffer text = names.duplicate();
+        text.position(nameStart.get(g));
+        text.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    byte gateType(int g) {  return gateType.get(g);  }
+
+    int inputCount(int g) {  return faninStart.get(g + 1) - faninStart.get(g);  }
+
+    static final class Ints {
+        /** An int table off the heap, mapped from a file or allocated directly, in chunks of 2^28 ints
+         * so it may hold up to 2^31 of them
+         */
+        static final int CHUNK_BITS = 28;
+        static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+        private final IntBuffer[] chunks;
+
+        private Ints(long length) {
+            chunks = new IntBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_BITS)];
+        }
+
+        static Ints map(FileChannel ch, long at, long length) throws IOException {
+            /** The length ints from byte at of the file, read only and little endian as BinaryNetlist writes them */
+            Ints t = new Ints(length);
+            for (int c = 0; c < t.chunks.length; c++) {
+                long size = Math.min(CHUNK_MASK + 1L, length - ((long) c << CHUNK_BITS));
+                t.chunks[c] = ch.map(FileChannel.MapMode.READ_ONLY, at + ((long) c << (CHUNK_BITS + 2)), 4 * size)
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            }
+            return t;
+        }
+
+        static Ints allocate(long length) {
+            /** length ints, all 0, in direct buffers */
+            Ints t = new Ints(length);
+            for (int c = 0; c < t.chunks.length; c++) {
+                long size = Math.min(CHUNK_MASK + 1L, length - ((long) c << CHUNK_BITS));
+                t.chunks[c] = ByteBuffer.allocateDirect((int) (4 * size)).order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+            return t;
+        }
+
+        int get(int i) {  return chunks[i >>> CHUNK_BITS].get(i & CHUNK_MASK);  }
+
+        void add(int i, int delta) {
+            IntBuffer chunk = chunks[i >>> CHUNK_BITS];
+            chunk.put(i & CHUNK_MASK, chunk.get(i & CHUNK_MASK) + delta);
+        }
+    }
+
+    static final class Bits {
+        /** A bit per element, packed in longs of a direct buffer, for the gate and wire values */
+        private final LongBuffer words;
+
+        Bits(int length) {
+            words = ByteBuffer.allocateDirect(8 * ((length + 63) >>> 6)).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+
+        boolean get(int i) {  return (words.get(i >>> 6) & 1L << i) != 0;  }
+
+        void set(int i, boolean value) {
+            long word = words.get(i >>> 6);
+            words.put(i >>> 6, value ? word | 1L << i : word & ~(1L << i));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * CompactSimulation runs the transport delay simulation of CompiledSimulation over a CompactCircuit,
+ * so neither the circuit nor its state is on the heap: gate and wire values are bits in direct buffers and the
+ * count of input wires at 1 of each gate is an off-heap int.  What is left on the heap grows with the events
+ * pending and the transitions of one key, not with the size of the circuit.
+ *
+ * Events, keys and their two phases are those of CompiledSimulation and the trace is the same, but a gate change
+ * always goes out as one wire event per out wire: a net needs its out wires sorted by delay, which is a table
+ * as large as the fanout on the heap.
+ * @see CompactCircuit
+ * @see CompiledSimulation
+ */
+class CompactSimulation {
+    final CompactCircuit circuit;
+    final CompactCircuit.Bits gateValue;
+    final CompactCircuit.Bits wireValue;
+    final CompactCircuit.Ints ones;  //per gate, input wires at 1
+    final EventScheduler eventQueue;
+    final TraceSink trace;
+    long now;          //key of the event being run
+    long eventCount;   //events run so far
+    private long[] reported = new long[16];  //(gate << 1 | value) reported while the current key runs
+    private int reportedCount;
+
+    CompactSimulation(CompactCircuit circuit, EventScheduler eventQueue, TraceSink trace) {
+        this.circuit = circuit;
+        this.eventQueue = eventQueue;
+        this.trace = trace;
+        gateValue = new CompactCircuit.Bits(circuit.gateCount);
+        wireValue = new CompactCircuit.Bits(circuit.wireCount);
+        ones = CompactCircuit.Ints.allocate(circuit.gateCount);
+    }
+
+    public void runSimulation() throws IOException {
+        /** Initializes the simulation and then runs it until the event queue is empty
+         */
+        trace.begin(circuit);
+        for (int g = 0; g < circuit.gateCount; g++) {
+            if (CompiledCircuit.startsHigh(circuit.gateType(g))) {
+                eventQueue.add(CompiledSimulation.gateKey(0), CompiledSimulation.gateEvent(g));
+            }
+        }
+        while (!eventQueue.isEmpty()) {
+            long key = eventQueue.peekTime();
+            if (key != now) {
+                flushTrace();
+                now = key;
+            }
+            long code = eventQueue.poll();
+            eventCount++;
+            int id = CompiledSimulation.eventId(code);
+            if (CompiledSimulation.eventKind(code) == CompiledSimulation.GATE_EVENT) {
+                runGateEvent(id);
+            } else {
+                runWireEvent(id);
+            }
+        }
+        flushTrace();
+        trace.flush();
+    }
+
+    private void flushTrace() throws IOException {
+        /** Passes the transitions reported at the current key to the trace in gate id order, as CompiledSimulation does
+         * @see CompiledSimulation#flushTrace()
+         */
+        if (reportedCount > 1) {
+            Arrays.sort(reported, 0, reportedCount);
+        }
+        long tick = CompiledSimulation.tickOf(now);
+        for (int i = 0; i < reportedCount; i++) {
+            int g = (int) (reported[i] >>> 1);
+            trace.gateChanged(tick + circuit.gateDelay.get(g), g, (reported[i] & 1) != 0);
+        }
+        reportedCount = 0;
+    }
+
+    private void runGateEvent(int g) {
+        /** Evaluates gate g, a change is reported and passed on to its out wires a gate delay later
+         */
+        CompactCircuit c = circuit;
+        byte type = c.gateType(g);
+        boolean value = gateValue.get(g);
+        boolean changeVal = CompiledSimulation.evaluate(type, ones.get(g), c.inputCount(g), value);
+        //A not gate always reports its value, the other gates only report a change
+        if (type != CompiledCircuit.NOT && value == changeVal) {
+            return;
+        }
+        gateValue.set(g, changeVal);
+        if (reportedCount == reported.length) {
+            reported = Arrays.copyOf(reported, reportedCount * 2);
+        }
+        reported[reportedCount++] = (long) g << 1 | (changeVal ? 1 : 0);
+        long key = Math.max(CompiledSimulation.wireKey(CompiledSimulation.tickOf(now) + c.gateDelay.get(g)), now);
+        for (int i = c.fanoutStart.get(g); i < c.fanoutStart.get(g + 1); i++) {
+            eventQueue.add(key, CompiledSimulation.wireEvent(c.fanoutWire.get(i)));
+        }
+    }
+
+    private void runWireEvent(int w) {
+        /** Copies the value of the source gate onto wire w and schedules its destination gate
+         */
+        CompactCircuit c = circuit;
+        boolean value = gateValue.get(c.wireSource.get(w));
+        int dest = c.wireDest.get(w);
+        if (wireValue.get(w) != value) {
+            wireValue.set(w, value);
+            ones.add(dest, value ? 1 : -1);
+        }
+        long key = CompiledSimulation.gateKey(CompiledSimulation.tickOf(now) + c.wireDelay.get(w));
+        eventQueue.add(Math.max(key, now), CompiledSimulation.gateEvent(dest));
+    }
+}
@@ -0,0 +1,253 @@
+package com.rwedoff;
+
+import java.util.Arrays;
+
+/**
+ * CompiledCircuit is the flat, index based form of a LogicCircuit.
+ * After the text netlist has been parsed and checked for completeness every gate and wire
+ * is given a dense integer id and all of the data the simulation needs is copied into primitive arrays,
+ * so the event loop never has to look a gate up by its name.
+ * @see LogicCircuit
+ * @see CompiledSimulation
+ */
+class CompiledCircuit implements GateIndex {
+    /** Gate type codes stored in gateType */
+    static final byte AND = 0;
+    static final byte OR = 1;
+    static final byte NOT = 2;
+    static final byte INPUT = 3;  //a primary input, set by a stimulus
+    static final byte NAND = 4;
+    static final byte NOR = 5;
+    static final byte XOR = 6;
+
+    /** Delays are quantized to integer ticks, the simulation keeps two decimal places of a time unit */
+    static final int TICKS_PER_UNIT = 100;
+
+    final int gateCount;
+    final int wireCount;
+
+    /** Per gate tables, indexed by gate id */
+    final String[] gateName;
+    final byte[] gateType;
+    final int[] gateDelay;    //in ticks
+    final int[] faninStart;   //inputs of gate g are faninWire[faninStart[g] .. faninStart[g+1]) in input order
+    final int[] faninWire;
+    final int[] fanoutStart;  //out wires of gate g are fanoutWire[fanoutStart[g] .. fanoutStart[g+1])
+    final int[] fanoutWire;
+
+    /** Per wire tables, indexed by wire id */
+    final int[] wireSource;
+    final int[] wireDest;
+    final int[] wireInput;
+    final int[] wireDelay;    //in ticks
+
+    /** The nets, built on first use: netWire[fanoutStart[g] .. fanoutStart[g+1]) are the out wires of gate g
+     * sorted by wire delay, then wire id, and netGate[g] whether they share delays enough to be run as a net */
+    private volatile int[] netWire;
+    private boolean[] netGate;
+
+    private CompiledCircuit(int gateCount, int wireCount, int faninCount, int fanoutCount) {
+        this.gateCount = gateCount;
+        this.wireCount = wireCount;
+        gateName = new String[gateCount];
+        gateType = new byte[gateCount];
+        gateDelay = new int[gateCount];
+        faninStart = new int[gateCount + 1];
+        faninWire = new int[faninCount];
+        fanoutStart = new int[gateCount + 1];
+        fanoutWire = new int[fanoutCount];
+        wireSource = new int[wireCount];
+        wireDest = new int[wireCount];
+        wireInput = new int[wireCount];
+        wireDelay = new int[wireCount];
+    }
+
+    @Override
+    public int gateCount() {  return gateCount;  }
+    @Override
+    public String gateName(int g) {  return gateName[g];  }
+    @Override
+    public int gateDelay(int g) {  return gateDelay[g];  }
+
+    static byte typeCode(String gateType) {
+        /** Maps the gate type string used by Gate to its compiled type code
+         */
+        if (gateType.equals("and")) {
+            return AND;
+        } else if (gateType.equals("or")) {
+            return OR;
+        } else if (gateType.equals("not")) {
+            return NOT;
+        } else if (gateType.equals("input")) {
+            return INPUT;
+        } else if (gateType.equals("nand")) {
+            return NAND;
+        } else if (gateType.equals("nor")) {
+            return NOR;
+        } else if (gateType.equals("xor")) {
+            return XOR;
+        }
+        throw new IllegalArgumentException(gateType + ", no such type of gate");
+    }
+
+    static boolean isWide(byte type) {
+        /** Whether gates of the type take any number of inputs, given after their delay when it is not 2 */
+        return type != NOT && type != INPUT;
+    }
+
+    static boolean startsHigh(byte type) {
+        /** Whether gates of the type are 1 while all of their inputs are 0, so the simulation evaluates them at time 0 */
+        return type == NOT || type == NAND || type == NOR;
+    }
+
+    static int toTicks(float delay) {
+        /** Quantizes a delay read from the netlist to ticks, the same rounding RoundFloat.round(delay, 2) does
+         */
+        return Math.round(delay * TICKS_PER_UNIT);
+    }
+
+    static float toTime(long ticks) {
+        /** Converts ticks back to the time printed in the trace
+         */
+        return (float) ticks / TICKS_PER_UNIT;
+    }
+
+    void writeCircuit(java.io.PrintStream out) {
+        /** Writes the circuit the way NetlistBuilder.writeCircuit does, gates in id order
+         * @see NetlistBuilder#writeCircuit(java.io.PrintStream)
+         */
+        for (int g = 0; g < gateCount; g++) {
+            int inputs = faninStart[g + 1] - faninStart[g];
+            out.println("gate " + NetlistBuilder.TYPE_NAMES[gateType[g]] + " " + gateName[g] + " " + toTime(gateDelay[g])
+                    + (isWide(gateType[g]) && inputs != 2 ? " " + inputs : ""));
+        }
+        for (int w = 0; w < wireCount; w++) {
+            out.println("wire " + gateName[wireSource[w]] + " " + gateName[wireDest[w]] + " " + wireInput[w] + " " + toTime(wireDelay[w]));
+        }
+    }
+
+    int[] netWire() {
+        /** The out wires of every gate in the order its net reaches them, shared by the simulations of the circuit
+         * @see CompiledSimulation#NET_EVENT
+         */
+        int[] nets = netWire;
+        if (nets == null) {
+            synchronized (this) {
+                if (netWire == null) {
+                    nets = fanoutWire.clone();
+                    netGate = new boolean[gateCount];
+                    for (int g = 0; g < gateCount; g++) {
+                        sortNet(nets, g);
+                    }
+                    netWire = nets;  //last, netGate is complete once netWire is seen
+                }
+                nets = netWire;
+            }
+        }
+        return nets;
+    }
+
+    boolean[] netGate() {
+        /** Whether a change of each gate is passed on through its net, see netWire */
+        netWire();
+        return netGate;
+    }
+
+    synchronized void sortNet(int g) {
+        /** Sorts the net of gate g again after the delay of one of its wires was edited */
+        if (netWire != null) {
+            sortNet(netWire, g);
+        }
+    }
+
+    private void sortNet(int[] nets, int g) {
+        /** A net pays off when its wires share delays: it runs one arrival per distinct delay, but a wire
+         * of a delay of its own costs as many queue operations as it would as a wire event, with more work,
+         * so a gate gets a net only when it has at least two wires for each of its delays
+         */
+        int from = fanoutStart[g];
+        int to = fanoutStart[g + 1];
+        netGate[g] = false;
+        if (to - from < 2) {
+            return;
+        }
+        long[] sorted = new long[to - from];
+        for (int i = from; i < to; i++) {
+            sorted[i - from] = (long) wireDelay[nets[i]] << 32 | nets[i];
+        }
+        Arrays.sort(sorted);
+        int delays = 0;
+        for (int i = from; i < to; i++) {
+            nets[i] = (int) sorted[i - from];
+            if (i == from || wireDelay[nets[i]] != wireDelay[nets[i - 1]]) {
+                delays++;
+            }
+        }
+        netGate[g] = 2 * delays <= to - from;
+    }
+
+    long fingerprint() {
+        /** A hash of everything the simulation reads from the circuit, to tell whether state saved from one
+         * circuit can be loaded into another
+         */
+        long h = 0x9E3779B97F4A7C15L;
+        h = mix(h, gateCount);
+        h = mix(h, wireCount);
+        for (int g = 0; g < gateCount; g++) {
+            h = mix(h, gateName[g].hashCode());
+            h = mix(h, gateType[g]);
+            h = mix(h, gateDelay[g]);
+        }
+        for (int w = 0; w < wireCount; w++) {
+            h = mix(h, wireSource[w]);
+            h = mix(h, wireDest[w]);
+            h = mix(h, wireInput[w]);
+            h = mix(h, wireDelay[w]);
+        }
+        return h;
+    }
+
+    private static long mix(long h, long x) {
+        h = (h ^ x) * 0xBF58476D1CE4E5B9L;
+        return h ^ (h >>> 31);
+    }
+
+    static CompiledCircuit allocate(int gateCount, int wireCount, int faninCount, int fanoutCount) {
+        /** An empty circuit of the given size, for a loader to fill every table of
+         * @see BinaryNetlist
+         */
+        return new CompiledCircuit(gateCount, wireCount, faninCount, fanoutCount);
+    }
+
+    static CompiledCircuit assemble(String[] gateName, byte[] gateType, int[] gateDelay, int[] faninStart, int[] faninWire,
+                                    int[] wireSource, int[] wireDest, int[] wireInput, int[] wireDelay) {
+        /** Builds a circuit from tables a parser has already filled in, every array is exactly as long as it should be.
+         * The out wires of a gate are listed in wire id order, as compile lists them.
+         * @see NetlistBuilder
+         */
+        int gateCount = gateName.length;
+        int wireCount = wireSource.length;
+        CompiledCircuit c = new CompiledCircuit(gateCount, wireCount, faninWire.length, wireCount);
+        System.arraycopy(gateName, 0, c.gateName, 0, gateCount);
+        System.arraycopy(gateType, 0, c.gateType, 0, gateCount);
+        System.arraycopy(gateDelay, 0, c.gateDelay, 0, gateCount);
+        System.arraycopy(faninStart, 0, c.faninStart, 0, gateCount + 1);
+        System.arraycopy(faninWire, 0, c.faninWire, 0, faninWire.length);
+        System.arraycopy(wireSource, 0, c.wireSource, 0, wireCount);
+        System.arraycopy(wireDest, 0, c.wireDest, 0, wireCount);
+        System.arraycopy(wireInput, 0, c.wireInput, 0, wireCount);
+        System.arraycopy(wireDelay, 0, c.wireDelay, 0, wireCount);
+        for (int w = 0; w < wireCount; w++) {
+            c.fanoutStart[wireSource[w] + 1]++;
+        }
+        for (int g = 0; g < gateCount; g++) {
+            c.fanoutStart[g + 1] += c.fanoutStart[g];
+        }
+        int[] fill = new int[gateCount];
+        for (int w = 0; w < wireCount; w++) {
+            int g = wireSource[w];
+            c.fanoutWire[c.fanoutStart[g] + fill[g]++] = w;
+        }
+        return c;
+    }
+}
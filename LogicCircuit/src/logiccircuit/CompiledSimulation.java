@@ -0,0 +1,553 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * CompiledSimulation runs the same event driven simulation as LogicCircuit.Simulation, but over a CompiledCircuit.
+ * Events are a primitive encoding of (kind, id) so nothing in the event loop touches a String or a map,
+ * and time is kept in integer ticks so no rounding is needed as delays add up.
+ *
+ * Each tick is split in two phases: the wire events of a tick run before its gate events, so every wire event
+ * of a tick reads its gate from before the tick and every gate event of a tick sees the same wire values,
+ * whatever order the events were scheduled in.  The scheduler is keyed by (tick << 1 | phase).
+ * The transitions reported while one key runs are passed to the trace sorted by gate id, so the trace does not
+ * depend on scheduling order either, which is what lets ParallelSimulation reproduce it exactly.
+ *
+ * A gate change reaches its out wires through its net, the out wires sorted by delay: one net event sets all
+ * of the wires, in the wire phase a wire event of each would run in, then one net arrival event per distinct wire
+ * delay evaluates the destination gates of the wires of that delay and schedules the next, so a gate of fanout F
+ * costs one queue operation per distinct delay and one more rather than 2F.  A gate whose wires mostly have delays
+ * of their own still uses a wire event per wire.  The trace is the one wire events write.
+ *
+ * Delays are transport delays unless useInertialDelay is called: then a gate or a wire keeps at most one pending
+ * transition, and an input change that takes it back to its current value before the transition happens cancels
+ * it, so pulses shorter than the delay of a gate or a wire never get past it.
+ * @see CompiledCircuit
+ * @see LogicCircuit.Simulation
+ * @see ParallelSimulation
+ */
+class CompiledSimulation implements RunLimits.Bounded {
+    /** Event kinds, stored in the low bits of an event code */
+    static final int GATE_EVENT = 0;
+    static final int WIRE_EVENT = 1;
+    static final int REMOTE_WIRE_EVENT = 2;  //a wire event carrying its value from another partition
+    static final int GATE_OUTPUT_EVENT = 3;  //the pending transition of a gate, inertial delay only
+    static final int WIRE_ARRIVAL_EVENT = 4; //the pending transition of a wire reaching its gate, inertial delay only
+    static final int INPUT_EVENT = 5;        //a stimulus setting an input gate, carrying its value
+    static final int NET_EVENT = 6;          //the wire events of every out wire of a gate
+    static final int NET_ARRIVAL_EVENT = 7;  //wires of a net reaching their gates, id is their first index in netWire
+    static final int KIND_BITS = 3;
+    static final int KIND_MASK = (1 << KIND_BITS) - 1;
+    static final int VALUE_BIT = 1 << KIND_BITS;  //the value a remote wire event carries
+    static final int ID_SHIFT = KIND_BITS + 1;
+
+    final CompiledCircuit circuit;
+    final int[] netWire;     //the nets of the circuit, see CompiledCircuit.netWire
+    final boolean[] netGate; //gates whose changes go through their net
+    final boolean[] gateValue;
+    final boolean[] wireValue;
+    final int[] ones;  //per gate, input wires at 1, kept as the wires change so a gate evaluates in constant time
+    final EventScheduler eventQueue;
+    final TraceSink trace;
+    long now;          //key of the event being run
+    long eventCount;   //events run so far
+    SimulationMetrics metrics;  //null unless instrumented
+    long[] gatePending;  //inertial delay: tick of the pending transition of each gate, -1 if none
+    long[] wirePending;  //inertial delay: tick of the pending transition of each wire, -1 if none
+    private StimulusReader stimulus;
+    private RunLimits limits;  //null to run until the event queue is empty
+    private long stimulusKey = Long.MAX_VALUE;  //key of the next input change the stimulus has not queued yet
+    private long[] reported = new long[16];  //(gate << 1 | value) reported while the current key runs
+    private int reportedCount;
+
+    CompiledSimulation(CompiledCircuit circuit, EventScheduler eventQueue, TraceSink trace) {
+        this(circuit, eventQueue, trace, new boolean[circuit.gateCount], new boolean[circuit.wireCount]);
+    }
+
+    CompiledSimulation(CompiledCircuit circuit, EventScheduler eventQueue, TraceSink trace,
+                       boolean[] gateValue, boolean[] wireValue) {
+        /** Value arrays may be shared by several simulations that each own part of the circuit
+         * @see ParallelSimulation
+         */
+        this.circuit = circuit;
+        netWire = circuit.netWire();
+        netGate = circuit.netGate();
+        this.eventQueue = eventQueue;
+        this.trace = trace;
+        this.gateValue = gateValue;
+        this.wireValue = wireValue;
+        ones = new int[circuit.gateCount];
+        recount();
+    }
+
+    static long wireKey(long tick) {  return tick << 1;  }
+    static long gateKey(long tick) {  return tick << 1 | 1;  }
+    static long tickOf(long key) {  return key >> 1;  }
+
+    static long gateEvent(int gate) {  return (long) gate << ID_SHIFT | GATE_EVENT;  }
+    static long wireEvent(int wire) {  return (long) wire << ID_SHIFT | WIRE_EVENT;  }
+    static long gateOutputEvent(int gate) {  return (long) gate << ID_SHIFT | GATE_OUTPUT_EVENT;  }
+    static long wireArrivalEvent(int wire) {  return (long) wire << ID_SHIFT | WIRE_ARRIVAL_EVENT;  }
+    static long inputEvent(int gate, boolean value) {  return (long) gate << ID_SHIFT | (value ? VALUE_BIT : 0) | INPUT_EVENT;  }
+    static long netEvent(int gate) {  return (long) gate << ID_SHIFT | NET_EVENT;  }
+    static long netArrivalEvent(int net) {  return (long) net << ID_SHIFT | NET_ARRIVAL_EVENT;  }
+    static long remoteWireEvent(int wire, boolean value) {  return (long) wire << ID_SHIFT | (value ? VALUE_BIT : 0) | REMOTE_WIRE_EVENT;  }
+    static int eventKind(long code) {  return (int) code & KIND_MASK;  }
+    static int eventId(long code) {  return (int) (code >>> ID_SHIFT);  }
+    static boolean eventValue(long code) {  return (code & VALUE_BIT) != 0;  }
+
+    void setMetrics(SimulationMetrics metrics) {
+        /** Turns on instrumentation of the event loop, before the simulation is run
+         * @see SimulationMetrics
+         */
+        this.metrics = metrics;
+    }
+
+    void useInertialDelay() {
+        /** Switches from transport to inertial delay, before the simulation is run.
+         * A pending transition is never taken out of the event queue: it is cancelled by forgetting its tick,
+         * and its event finds that out when it comes up and does nothing
+         */
+        gatePending = new long[circuit.gateCount];
+        wirePending = new long[circuit.wireCount];
+        Arrays.fill(gatePending, -1);
+        Arrays.fill(wirePending, -1);
+    }
+
+    boolean inertial() {  return gatePending != null;  }
+
+    void setStimulus(StimulusReader stimulus) {
+        /** Drives the input gates from stimulus, which is read as the simulation reaches it
+         * @see StimulusReader
+         */
+        this.stimulus = stimulus;
+        stimulusKey = stimulus.nextKey();
+    }
+
+    void setLimits(RunLimits limits) {
+        /** Bounds the simulation by time, events or wall clock, or stops it once it repeats itself,
+         * before the simulation is run
+         * @see RunLimits
+         */
+        this.limits = limits;
+    }
+
+    void recount() {
+        /** Counts the input wires at 1 of every gate again, after the wire values have been set from outside
+         * the event loop
+         * @see SimulationSnapshot#restore(CompiledSimulation, Path)
+         */
+        Arrays.fill(ones, 0);
+        for (int w = 0; w < circuit.wireCount; w++) {
+            if (wireValue[w]) {
+                ones[circuit.wireDest[w]]++;
+            }
+        }
+    }
+
+    long stimulusLine() {  return stimulus == null ? 0 : stimulus.resumeLine();  }
+
+    public void runSimulation() throws IOException {
+        /** Initializes the simulation and then runs it until the event queue is empty
+         */
+        begin();
+        initSimulation();
+        run();
+        end();
+    }
+
+    void runSimulation(long checkpointTick, Path snapshot) throws IOException {
+        /** Runs the simulation as runSimulation does, saving it to snapshot once the events before
+         * checkpointTick have run
+         * @see SimulationSnapshot
+         */
+        begin();
+        initSimulation();
+        runBefore(wireKey(checkpointTick));
+        SimulationSnapshot.write(this, snapshot);
+        run();
+        end();
+    }
+
+    void resumeSimulation() throws IOException {
+        /** Runs a simulation loaded from a snapshot until the event queue is empty
+         * @see SimulationSnapshot#restore(CompiledSimulation, Path)
+         */
+        begin();
+        run();
+        end();
+    }
+
+    private void begin() throws IOException {
+        trace.begin(circuit);
+        if (metrics != null) {
+            metrics.start();
+        }
+    }
+
+    private void end() throws IOException {
+        flushTrace();  //a run stopped by its event limit may stop inside a key
+        if (metrics != null) {
+            metrics.finish();
+        }
+        trace.flush();
+    }
+
+    public void initSimulation() {
+        /** Initialize all values false in order switch not, nand and nor to true
+         */
+        for (int g = 0; g < circuit.gateCount; g++) {
+            if (CompiledCircuit.startsHigh(circuit.gateType[g])) {
+                eventQueue.add(gateKey(0), gateEvent(g));
+            }
+        }
+    }
+
+    public void run() throws IOException {
+        if (limits == null) {
+            runBefore(Long.MAX_VALUE);
+        } else {
+            limits.run(this);
+        }
+    }
+
+    void runBefore(long endKey) throws IOException {
+        runBefore(endKey, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void runBefore(long endKey, long eventLimit) throws IOException {
+        /** Runs the events whose keys are before endKey, queueing the next batch of the stimulus whenever
+         * the simulation reaches the input changes it has not queued yet.
+         * It also stops once eventCount reaches eventLimit, even inside a key: the transitions of that key
+         * are then held until it ends, so running on from there writes the same trace
+         */
+        while (true) {
+            long key = eventQueue.isEmpty() ? Long.MAX_VALUE : eventQueue.peekTime();
+            if (stimulusKey <= key && stimulusKey < endKey) {
+                stimulusKey = stimulus.feed(this);
+                continue;
+            }
+            if (key >= endKey) {
+                break;
+            }
+            if (eventCount >= eventLimit) {
+                return;
+            }
+            runEvent(key, eventQueue.poll());
+        }
+        flushTrace();
+    }
+
+    @Override
+    public long pendingKey() {
+        /** The key of the next event, or of the next input change of the stimulus, Long.MAX_VALUE once settled */
+        return Math.min(eventQueue.isEmpty() ? Long.MAX_VALUE : eventQueue.peekTime(), stimulusKey);
+    }
+
+    @Override
+    public boolean stimulusDone() {  return stimulusKey == Long.MAX_VALUE;  }
+
+    @Override
+    public long eventCount() {  return eventCount;  }
+
+    @Override
+    public long now() {  return now;  }
+
+    @Override
+    public long[] state(long tick) {
+        /** Everything the simulation will do from tick on depends on, once every event before tick has run:
+         * the gate and wire values, the pending transitions of inertial delay and the queued events in the
+         * order they will run, all times relative to tick.  Two ticks of the same state are a period apart.
+         */
+        int gates = (circuit.gateCount + 63) >>> 6;
+        int wires = (circuit.wireCount + 63) >>> 6;
+        int pending = inertial() ? circuit.gateCount + circuit.wireCount : 0;
+        long[] state = new long[gates + wires + pending + 2 * eventQueue.size()];
+        for (int g = 0; g < circuit.gateCount; g++) {
+            if (gateValue[g]) {
+                state[g >>> 6] |= 1L << g;
+            }
+        }
+        for (int w = 0; w < circuit.wireCount; w++) {
+            if (wireValue[w]) {
+                state[gates + (w >>> 6)] |= 1L << w;
+            }
+        }
+        int at = gates + wires;
+        for (int i = 0; i < pending; i++) {
+            long p = i < circuit.gateCount ? gatePending[i] : wirePending[i - circuit.gateCount];
+            state[at++] = p < 0 ? -1 : p - tick;
+        }
+        int[] next = {at};
+        long base = wireKey(tick);
+        eventQueue.forEach((time, code) -> {
+            state[next[0]++] = time - base;
+            state[next[0]++] = code;
+        });
+        return state;
+    }
+
+    void runEvent(long key, long code) throws IOException {
+        advanceTo(key);
+        eventCount++;
+        if (metrics != null) {
+            metrics.eventRun(eventKind(code), eventQueue.size());
+        }
+        switch (eventKind(code)) {
+            case GATE_EVENT:
+                runGateEvent(eventId(code));
+                break;
+            case WIRE_EVENT:
+                runWireEvent(eventId(code), gateValue[circuit.wireSource[eventId(code)]]);
+                break;
+            case REMOTE_WIRE_EVENT:
+                runWireEvent(eventId(code), eventValue(code));
+                break;
+            case GATE_OUTPUT_EVENT:
+                runGateOutputEvent(eventId(code));
+                break;
+            case WIRE_ARRIVAL_EVENT:
+                runWireArrivalEvent(eventId(code));
+                break;
+            case INPUT_EVENT:
+                changeGate(eventId(code), eventValue(code));
+                break;
+            case NET_EVENT:
+                runNetEvent(eventId(code));
+                break;
+            case NET_ARRIVAL_EVENT:
+                runNetArrivalEvent(eventId(code));
+                break;
+            default:
+                throw new IllegalStateException("unknown event kind " + eventKind(code));
+        }
+    }
+
+    void advanceTo(long key) throws IOException {
+        /** Moves the simulation to the key of the next event, first passing on what the last key reported
+         */
+        if (key != now) {
+            flushTrace();
+            now = key;
+            if (metrics != null) {
+                metrics.advance(tickOf(key));
+            }
+        }
+    }
+
+    void flushTrace() throws IOException {
+        /** Passes the transitions reported at the current key to the trace, in gate id order.
+         * With transport delay a gate reports when it is evaluated, so its transition is a gate delay later
+         */
+        if (reportedCount == 0) {
+            return;
+        }
+        if (reportedCount > 1) {
+            Arrays.sort(reported, 0, reportedCount);
+        }
+        long tick = tickOf(now);
+        boolean transport = !inertial();
+        for (int i = 0; i < reportedCount; i++) {
+            int g = (int) (reported[i] >>> 1);
+            trace.gateChanged(transport ? tick + circuit.gateDelay[g] : tick, g, (reported[i] & 1) != 0);
+        }
+        reportedCount = 0;
+    }
+
+    private void report(int g, boolean value) {
+        if (reportedCount == reported.length) {
+            reported = Arrays.copyOf(reported, reportedCount * 2);
+        }
+        reported[reportedCount++] = (long) g << 1 | (value ? 1 : 0);
+    }
+
+    void schedule(long key, long code) {
+        /** A gate with no delay schedules its wire events for the phase it is running in */
+        eventQueue.add(Math.max(key, now), code);
+    }
+
+    void scheduleWire(int w, long tick) {
+        schedule(wireKey(tick), wireEvent(w));
+    }
+
+    void scheduleNet(int g, long tick) {
+        /** Passes a change of gate g on to its out wires at tick, through one net event if its wires share delays,
+         * else through a wire event each, which is as many queue operations and less work per event
+         */
+        if (netGate[g]) {
+            schedule(wireKey(tick), netEvent(g));
+        } else {
+            for (int i = circuit.fanoutStart[g]; i < circuit.fanoutStart[g + 1]; i++) {
+                scheduleWire(circuit.fanoutWire[i], tick);
+            }
+        }
+    }
+
+    private void runGateEvent(int g) {
+        /** Evaluates gate g from the current values of its input wires, the compiled form of Gate.runGateEvent
+         * @see Gate#runGateEvent(float, EventSink)
+         */
+        changeGate(g, evaluate(g));
+    }
+
+    private void changeGate(int g, boolean changeVal) {
+        /** Gives gate g its newly evaluated value, the changes are reported and passed on to its out wires
+         */
+        CompiledCircuit c = circuit;
+        if (inertial()) {
+            runInertialGate(g, changeVal);
+            return;
+        }
+        //A not gate always reports its value, the other gates only report a change
+        if (c.gateType[g] != CompiledCircuit.NOT && gateValue[g] == changeVal) {
+            if (metrics != null) {
+                metrics.unchangedGateEvents++;
+            }
+            return;
+        }
+        if (metrics != null && gateValue[g] != changeVal) {
+            metrics.toggles[g]++;
+        }
+        gateValue[g] = changeVal;
+        long totalDelay = tickOf(now) + c.gateDelay[g];
+        report(g, changeVal);
+        scheduleNet(g, totalDelay);
+    }
+
+    private boolean evaluate(int g) {
+        CompiledCircuit c = circuit;
+        return evaluate(c.gateType[g], ones[g], c.faninStart[g + 1] - c.faninStart[g], gateValue[g]);
+    }
+
+    static boolean evaluate(byte type, int ones, int inputs, boolean value) {
+        /** The value of a gate of type with ones of its inputs at 1, whatever the number of its inputs */
+        switch (type) {
+            case CompiledCircuit.AND:
+                return ones == inputs;
+            case CompiledCircuit.OR:
+                return ones > 0;
+            case CompiledCircuit.NAND:
+                return ones < inputs;
+            case CompiledCircuit.NOR:
+            case CompiledCircuit.NOT:
+                return ones == 0;
+            case CompiledCircuit.XOR:
+                return (ones & 1) != 0;
+            default:
+                return value;  //an input gate keeps the value its stimulus set
+        }
+    }
+
+    private void runInertialGate(int g, boolean changeVal) {
+        /** A value other than the output of gate g makes it pending a gate delay later, unless it already is;
+         * the output value cancels a pending transition, the pulse it ends is shorter than the gate delay
+         */
+        if (changeVal != gateValue[g]) {
+            if (gatePending[g] < 0) {
+                gatePending[g] = tickOf(now) + circuit.gateDelay[g];
+                schedule(wireKey(gatePending[g]), gateOutputEvent(g));
+            }
+        } else if (gatePending[g] >= 0) {
+            gatePending[g] = -1;
+            if (metrics != null) {
+                metrics.cancelledTransitions++;
+            }
+        } else if (metrics != null) {
+            metrics.unchangedGateEvents++;
+        }
+    }
+
+    private void runGateOutputEvent(int g) {
+        /** The pending transition of gate g happens, in the wire phase of its tick, and its wires follow it
+         * at once rather than through wire events of the same tick
+         */
+        if (gatePending[g] != tickOf(now)) {
+            return;  //cancelled
+        }
+        gatePending[g] = -1;
+        gateValue[g] = !gateValue[g];
+        if (metrics != null) {
+            metrics.toggles[g]++;
+        }
+        report(g, gateValue[g]);
+        CompiledCircuit c = circuit;
+        for (int i = c.fanoutStart[g]; i < c.fanoutStart[g + 1]; i++) {
+            runWireEvent(c.fanoutWire[i], gateValue[g]);
+        }
+    }
+
+    private void runWireArrivalEvent(int w) {
+        /** The pending transition of wire w reaches its destination gate, which is evaluated straight away
+         */
+        if (wirePending[w] != tickOf(now)) {
+            return;  //cancelled
+        }
+        wirePending[w] = -1;
+        setWire(w, !wireValue[w]);
+        runGateEvent(circuit.wireDest[w]);
+    }
+
+    private void runWireEvent(int w, boolean value) {
+        /** Copies the value of the source gate onto wire w and schedules its destination gate, or with inertial
+         * delay makes the value pending a wire delay later
+         * @see Wire#runWireEvent(float, EventSink)
+         */
+        CompiledCircuit c = circuit;
+        if (inertial()) {
+            if (value != wireValue[w]) {
+                if (wirePending[w] < 0) {
+                    wirePending[w] = tickOf(now) + c.wireDelay[w];
+                    schedule(gateKey(wirePending[w]), wireArrivalEvent(w));
+                }
+            } else if (wirePending[w] >= 0) {
+                wirePending[w] = -1;
+                if (metrics != null) {
+                    metrics.cancelledTransitions++;
+                }
+            }
+            return;
+        }
+        setWire(w, value);
+        schedule(gateKey(tickOf(now) + c.wireDelay[w]), gateEvent(c.wireDest[w]));
+    }
+
+    private void runNetEvent(int g) {
+        /** Copies the value of gate g onto all of its out wires, as their wire events would, and schedules the
+         * arrival of the wires of the shortest delay
+         */
+        CompiledCircuit c = circuit;
+        boolean value = gateValue[g];
+        int first = c.fanoutStart[g];
+        for (int i = first; i < c.fanoutStart[g + 1]; i++) {
+            setWire(netWire[i], value);
+        }
+        schedule(gateKey(tickOf(now) + c.wireDelay[netWire[first]]), netArrivalEvent(first));
+    }
+
+    private void runNetArrivalEvent(int i) {
+        /** Evaluates the destination gates of the wires of a net from netWire[i] on that have the same delay,
+         * then schedules the arrival of the wires of the next delay
+         */
+        CompiledCircuit c = circuit;
+        int w = netWire[i];
+        int delay = c.wireDelay[w];
+        int end = c.fanoutStart[c.wireSource[w] + 1];
+        long netTick = tickOf(now) - delay;  //tick of the net event
+        for (; i < end && c.wireDelay[netWire[i]] == delay; i++) {
+            runGateEvent(c.wireDest[netWire[i]]);
+        }
+        if (i < end) {
+            schedule(gateKey(netTick + c.wireDelay[netWire[i]]), netArrivalEvent(i));
+        }
+    }
+
+    private void setWire(int w, boolean value) {
+        if (wireValue[w] != value) {
+            wireValue[w] = value;
+            ones[circuit.wireDest[w]] += value ? 1 : -1;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.rwedoff;
+
+import java.util.List;
+
+class Errors {
+    /** Error reporting framework
+     * This idea was taken from Prof. Jones solution MP1
+     * A thread running a batch job reports to the log of its job instead of standard error, and a fatal
+     * error ends the job, not the JVM
+     * @see BatchRunner
+    */
+    private static final ThreadLocal<List<String>> log = new ThreadLocal<>();
+
+    static void fatal( String message ) {
+        /** Report a fatal error with the given message
+        */
+        List<String> messages = log.get();
+        if (messages != null) {
+            messages.add( "Error: " + message );
+            throw new FatalError( message );
+        }
+        System.err.println( "Error: " + message );
+        System.exit( 1 );
+    }
+    static void warn( String message ) {
+    /** Report a nonfatal error with the given message
+     */
+        List<String> messages = log.get();
+        if (messages != null) {
+            messages.add( "Error: " + message );
+            return;
+        }
+        System.err.println( "Error: " + message );
+    }
+    static void logTo( List<String> messages ) {
+        /** Reports the errors of this thread to messages from now on, or to standard error again if null
+        */
+        if (messages == null) {
+            log.remove();
+        } else {
+            log.set( messages );
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.rwedoff;
+
+/**
+ * An EventScheduler holds the pending events of a CompiledSimulation as primitive (time, event code) pairs.
+ * The time is whatever ordering key the simulation uses, CompiledSimulation schedules by (tick << 1 | phase).
+ * Events come out in time order, and events with the same time come out in the order they were added.
+ * An event may not be added with a time earlier than the last one polled.
+ * @see HeapScheduler
+ * @see TimingWheel
+ * @see CompiledSimulation
+ */
+interface EventScheduler {
+    void add(long time, long code);
+    boolean isEmpty();
+    int size();
+    long peekTime();  //time of the next event, only valid if the scheduler is not empty
+    long poll();      //removes the next event and returns its code
+    void forEach(Visitor visitor);  //visits every pending event in the order they would be polled, removing none
+
+    interface Visitor {
+        void visit(long time, long code);
+    }
+
+    static EventScheduler create(String name) {
+        /** Creates a scheduler by the name used on the command line
+         */
+        if (name.equals("wheel")) {
+            return new TimingWheel();
+        } else if (name.equals("heap")) {
+            return new HeapScheduler();
+        }
+        throw new IllegalArgumentException(name + " is not a valid scheduler (wheel, heap)");
+    }
+}
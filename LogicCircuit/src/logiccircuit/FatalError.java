@@ -0,0 +1,10 @@
+package com.rwedoff;
+
+class FatalError extends RuntimeException {
+    /** A fatal error reported while Errors logs to a batch job, it ends the job */
+    private static final long serialVersionUID = 1L;
+
+    FatalError( String message ) {
+        super( message );
+    }
+}
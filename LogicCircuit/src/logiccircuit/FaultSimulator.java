@@ -0,0 +1,233 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * FaultSimulator measures how many stuck-at faults of a CompiledCircuit show at its observed gates.
+ * Every gate output and every wire may be stuck at 0 or at 1, so a circuit has 2 * (gates + wires) faults:
+ * fault f is site f / 2 stuck at f % 2, the gates being sites 0 .. gates - 1 and the wires the sites after them.
+ *
+ * Faults are simulated 63 at a time by a BitParallelSimulation whose lane 0 is the good circuit and whose other
+ * lanes are each one faulty copy, and a lane is dropped as soon as its fault is detected, so a batch ends once
+ * all of its faults are.  The batches are spread over a fixed pool of worker threads.
+ * The observed gates are by default the gates that drive no wire.  Without a stimulus the input gates stay false,
+ * so a fault only shows if the circuit sets it off on its own; every batch reads the stimulus file anew and drives
+ * the input gates of all of its lanes from it.
+ *
+ * A circuit that never settles, like a clocked one, keeps a batch running for as long as one of its faults is not
+ * detected, so every batch is bounded by a copy of the RunLimits of the run.  The faults still live when a limit
+ * stops their batch are left undetected, and the report says how many batches each limit stopped.
+ * @see BitParallelSimulation#stickGate(int, int, boolean)
+ * @see RunLimits
+ */
+class FaultSimulator {
+    static final int BATCH = BitParallelSimulation.LANES - 1;  //lane 0 runs the good circuit
+
+    final CompiledCircuit circuit;
+    final boolean[] observed;
+    final int faultCount;
+    final boolean[] detected;  //per fault
+    long events;               //run by all of the batches
+    long laneEvents;           //counted once per lane, faulty or good
+    long nanos;                //wall clock time of run
+    int workers;
+    final int[] stopped = new int[STOP_REASONS.length];  //batches per RunLimits reason
+    private static final String[] STOP_REASONS = {"settled", "time limit", "event limit", "wall clock limit",
+            "steady state"};
+    Path stimulus;             //drives the input gates, null to leave them false
+
+    FaultSimulator(CompiledCircuit circuit, boolean[] observed) {
+        this.circuit = circuit;
+        this.observed = observed;
+        long faults = 2L * (circuit.gateCount + (long) circuit.wireCount);
+        if (faults > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("more than " + Integer.MAX_VALUE + " faults");
+        }
+        faultCount = (int) faults;
+        detected = new boolean[faultCount];
+    }
+
+    static boolean[] outputs(CompiledCircuit circuit) {
+        /** The gates that drive no wire, the observed gates unless they are named */
+        boolean[] outputs = new boolean[circuit.gateCount];
+        for (int g = 0; g < circuit.gateCount; g++) {
+            outputs[g] = circuit.fanoutStart[g] == circuit.fanoutStart[g + 1];
+        }
+        return outputs;
+    }
+
+    static boolean[] observed(CompiledCircuit circuit, List<String> names) {
+        /** The named gates, an unknown name throws an IllegalArgumentException */
+        HashMap<String, Integer> ids = new HashMap<>();
+        for (int g = 0; g < circuit.gateCount; g++) {
+            ids.put(circuit.gateName[g], g);
+        }
+        boolean[] observed = new boolean[circuit.gateCount];
+        for (String name : names) {
+            Integer g = ids.get(name);
+            if (g == null) {
+                throw new IllegalArgumentException(name + " is not a gate to observe");
+            }
+            observed[g] = true;
+        }
+        return observed;
+    }
+
+    static long steadyInterval(CompiledCircuit circuit) {
+        /** Ticks between the state checks of a run of circuit with no other bound: a few of its longest gate and
+         * wire delays, long enough that a check costs little next to the events between checks
+         */
+        int gate = 0;
+        int wire = 0;
+        for (int d : circuit.gateDelay) {
+            gate = Math.max(gate, d);
+        }
+        for (int d : circuit.wireDelay) {
+            wire = Math.max(wire, d);
+        }
+        return Math.max(16L * (gate + wire), 1);
+    }
+
+    void run(String scheduler, RunLimits limits, int workers) throws InterruptedException {
+        /** Simulates every fault, each batch bounded by a copy of limits.
+         * A stimulus that cannot be read throws an UncheckedIOException
+         */
+        this.workers = workers;
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int first = 0; first < faultCount; first += BATCH) {
+                int from = first;
+                futures.add(pool.submit(() -> runBatch(from, scheduler, limits.copy())));
+            }
+            for (Future<long[]> f : futures) {
+                try {
+                    long[] batch = f.get();
+                    events += batch[0];
+                    laneEvents += batch[1];
+                    stopped[(int) batch[2]]++;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();  //a bad stimulus line is an IllegalArgumentException
+                    } else if (e.getCause() instanceof IOException) {
+                        throw new UncheckedIOException((IOException) e.getCause());
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        nanos = System.nanoTime() - start;
+    }
+
+    private long[] runBatch(int first, String scheduler, RunLimits limits) throws IOException {
+        /** Simulates the faults from first on in one run, marks the ones detected and returns the events it ran
+         * and why it stopped
+         */
+        if (stimulus == null) {
+            return runBatch(first, scheduler, limits, null);
+        }
+        try (StimulusReader reader = new StimulusReader(stimulus, circuit)) {
+            return runBatch(first, scheduler, limits, reader);
+        }
+    }
+
+    private long[] runBatch(int first, String scheduler, RunLimits limits, StimulusReader reader) throws IOException {
+        BitParallelSimulation sim = new BitParallelSimulation(circuit, EventScheduler.create(scheduler));
+        int last = Math.min(first + BATCH, faultCount);
+        for (int f = first; f < last; f++) {
+            int site = f >>> 1;
+            boolean value = (f & 1) != 0;
+            if (site < circuit.gateCount) {
+                sim.stickGate(site, f - first + 1, value);
+            } else {
+                sim.stickWire(site - circuit.gateCount, f - first + 1, value);
+            }
+        }
+        sim.observe(observed);
+        if (reader != null) {
+            sim.setStimulus(reader);
+        }
+        sim.setLimits(limits);
+        sim.initSimulation();
+        sim.run();
+        for (int f = first; f < last; f++) {
+            detected[f] = (sim.detected >>> (f - first + 1) & 1) != 0;  //each batch writes faults of its own
+        }
+        return new long[] {sim.eventCount, sim.laneEventCount, limits.stopped};
+    }
+
+    String describe(int f) {
+        /** A fault as the report lists it, a wire is named as writeCircuit writes it */
+        int site = f >>> 1;
+        String stuck = " stuck at " + (f & 1);
+        if (site < circuit.gateCount) {
+            return "gate " + circuit.gateName[site] + stuck;
+        }
+        int w = site - circuit.gateCount;
+        return "wire " + circuit.gateName[circuit.wireSource[w]] + " " + circuit.gateName[circuit.wireDest[w]] + " "
+                + circuit.wireInput[w] + stuck;
+    }
+
+    void writeReport(PrintStream out, int listed) {
+        /** Writes the coverage and the throughput, and the first listed faults left undetected
+         */
+        int observedGates = 0;
+        for (boolean o : observed) {
+            observedGates += o ? 1 : 0;
+        }
+        int gateFaults = 2 * circuit.gateCount;
+        int gateDetected = 0;
+        int wireDetected = 0;
+        for (int f = 0; f < faultCount; f++) {
+            if (detected[f]) {
+                if (f < gateFaults) {
+                    gateDetected++;
+                } else {
+                    wireDetected++;
+                }
+            }
+        }
+        int found = gateDetected + wireDetected;
+        double seconds = nanos / 1e9;
+        out.printf("Fault simulation: %d faults, %d observed gates, %d batches of %d on %d threads%n", faultCount,
+                observedGates, (faultCount + BATCH - 1) / BATCH, BATCH, workers);
+        out.printf("Coverage: %d of %d faults detected, %.2f%% (gate outputs %d of %d, wires %d of %d)%n", found,
+                faultCount, faultCount == 0 ? 100.0 : 100.0 * found / faultCount, gateDetected, gateFaults,
+                wireDetected, faultCount - gateFaults);
+        out.printf("Throughput: %.3f s, %.0f faults/s, %d events, %d lane events%n", seconds,
+                faultCount / Math.max(seconds, 1e-9), events, laneEvents);
+        for (int r = RunLimits.TIME_LIMIT; r < stopped.length; r++) {
+            if (stopped[r] > 0) {
+                out.println("Stopped by the " + STOP_REASONS[r] + ": " + stopped[r]
+                        + " batches, their faults still live are undetected");
+            }
+        }
+        int left = faultCount - found;
+        if (left > 0) {
+            out.println("\nUndetected faults: " + left);
+            int shown = 0;
+            for (int f = 0; f < faultCount && shown < listed; f++) {
+                if (!detected[f]) {
+                    out.println(describe(f));
+                    shown++;
+                }
+            }
+            if (left > shown) {
+                out.println("... and " + (left - shown) + " more");
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.rwedoff;
+
+interface GateIndex {
+    /** What a TraceSink needs to know of the gates of a circuit, by gate id
+     * @see CompiledCircuit
+     * @see HierarchicalCircuit
+     */
+    int gateCount();
+    String gateName(int g);
+    /** In ticks */
+    int gateDelay(int g);
+}
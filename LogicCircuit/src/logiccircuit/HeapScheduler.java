@@ -0,0 +1,98 @@
+package com.rwedoff;
+
+import java.util.Arrays;
+
+class HeapScheduler implements EventScheduler {
+    /** HeapScheduler is a binary min heap ordered by (time, insertion sequence).
+     * It costs log(n) per operation but has no limit on how far ahead an event may be,
+     * so it is also used as the overflow of the TimingWheel.
+     */
+    private long[] time = new long[64];
+    private long[] seq = new long[64];
+    private long[] code = new long[64];
+    private int size;
+    private long nextSeq;
+
+    @Override
+    public boolean isEmpty() {  return size == 0;  }
+    @Override
+    public int size() {  return size;  }
+    @Override
+    public long peekTime() {  return time[0];  }
+
+    @Override
+    public void add(long t, long c) {
+        if (size == time.length) {
+            time = Arrays.copyOf(time, size * 2);
+            seq = Arrays.copyOf(seq, size * 2);
+            code = Arrays.copyOf(code, size * 2);
+        }
+        long s = nextSeq++;
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(t, s, time[parent], seq[parent])) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        time[i] = t;
+        seq[i] = s;
+        code[i] = c;
+    }
+
+    @Override
+    public long poll() {
+        long result = code[0];
+        size--;
+        if (size > 0) {
+            long t = time[size];
+            long s = seq[size];
+            long c = code[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(time[child + 1], seq[child + 1], time[child], seq[child])) {
+                    child++;
+                }
+                if (!before(time[child], seq[child], t, s)) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+            time[i] = t;
+            seq[i] = s;
+            code[i] = c;
+        }
+        return result;
+    }
+
+    @Override
+    public void forEach(Visitor visitor) {
+        /** Polls a copy of the heap */
+        HeapScheduler copy = new HeapScheduler();
+        copy.time = Arrays.copyOf(time, size);
+        copy.seq = Arrays.copyOf(seq, size);
+        copy.code = Arrays.copyOf(code, size);
+        copy.size = size;
+        while (!copy.isEmpty()) {
+            long t = copy.peekTime();
+            visitor.visit(t, copy.poll());
+        }
+    }
+
+    private static boolean before(long t1, long s1, long t2, long s2) {
+        return t1 < t2 || (t1 == t2 && s1 < s2);
+    }
+
+    private void move(int from, int to) {
+        time[to] = time[from];
+        seq[to] = seq[from];
+        code[to] = code[from];
+    }
+}
@@ -0,0 +1,249 @@
+package com.rwedoff;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * HierarchicalCircuit is a netlist of module instances kept as flyweights: everything static about a module,
+ * its gate types, delays, names and internal wires, is stored once in its ModuleTemplate, and an instance is
+ * only a name, its module and where its gates and wires start.  The top level gates and the wires between
+ * instances are stored as in a CompiledCircuit.
+ *
+ * Gate ids are the top level gates first, then the gates of every instance in instance order, each in the order
+ * of its module; wire ids are the top level wires, then the internal wires of every instance.  The gate of an id
+ * is found by a binary search of the instances, so the circuit takes memory in proportion to its modules and
+ * instances rather than its gates.  flatten expands it into the CompiledCircuit of the same ids, for the engines
+ * that need flat tables.  The gate g of instance i is named i.g.
+ * @see ModuleTemplate
+ * @see HierarchicalSimulation
+ */
+class HierarchicalCircuit implements GateIndex {
+    final int gateCount;
+    final int wireCount;
+
+    /** Top level gates */
+    final int topGates;
+    final String[] topName;
+    final byte[] topType;
+    final int[] topDelay;         //in ticks
+    final int[] topFaninStart;    //inputs of top gate g are topFaninWire[topFaninStart[g] .. topFaninStart[g+1])
+    final int[] topFaninWire;
+
+    /** Top level wires, between gates of any id */
+    final int topWires;
+    final int[] wireSource;
+    final int[] wireDest;
+    final int[] wireInput;
+    final int[] wireDelay;        //in ticks
+    private final long[] topFanout;  //(source << 32 | wire) of every top level wire, sorted
+
+    /** Instances */
+    final ModuleTemplate[] modules;
+    final String[] instanceName;
+    final int[] instanceModule;
+    final int[] gateBase;         //id of the first gate of each instance
+    final int[] wireBase;         //id of the first internal wire of each instance
+
+    HierarchicalCircuit(String[] topName, byte[] topType, int[] topDelay, int[] topFaninStart, int[] topFaninWire,
+                        int[] wireSource, int[] wireDest, int[] wireInput, int[] wireDelay,
+                        ModuleTemplate[] modules, String[] instanceName, int[] instanceModule) {
+        /** Every array is exactly as long as it should be, top level wires name gates by id
+         */
+        this.topName = topName;
+        this.topType = topType;
+        this.topDelay = topDelay;
+        this.topFaninStart = topFaninStart;
+        this.topFaninWire = topFaninWire;
+        this.wireSource = wireSource;
+        this.wireDest = wireDest;
+        this.wireInput = wireInput;
+        this.wireDelay = wireDelay;
+        this.modules = modules;
+        this.instanceName = instanceName;
+        this.instanceModule = instanceModule;
+        topGates = topName.length;
+        topWires = wireSource.length;
+        gateBase = new int[instanceName.length];
+        wireBase = new int[instanceName.length];
+        long gates = topGates;
+        long wires = topWires;
+        for (int i = 0; i < instanceName.length; i++) {
+            gateBase[i] = (int) gates;
+            wireBase[i] = (int) wires;
+            gates += modules[instanceModule[i]].circuit.gateCount;
+            wires += modules[instanceModule[i]].circuit.wireCount;
+            if (gates > Integer.MAX_VALUE || wires > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("more than " + Integer.MAX_VALUE + " gates or wires");
+            }
+        }
+        gateCount = (int) gates;
+        wireCount = (int) wires;
+        topFanout = new long[topWires];
+        for (int w = 0; w < topWires; w++) {
+            topFanout[w] = (long) wireSource[w] << 32 | w;
+        }
+        Arrays.sort(topFanout);
+    }
+
+    int instanceOfGate(int g) {
+        /** The instance gate g belongs to, g is not a top level gate */
+        return lastAtMost(gateBase, g);
+    }
+
+    int instanceOfWire(int w) {
+        /** The instance internal wire w belongs to, w is not a top level wire */
+        return lastAtMost(wireBase, w);
+    }
+
+    private static int lastAtMost(int[] base, int id) {
+        /** The last instance starting at id or before, instances without wires start where the next one does */
+        int lo = 0;
+        int hi = base.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (base[mid] <= id) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    CompiledCircuit module(int instance) {  return modules[instanceModule[instance]].circuit;  }
+
+    int topFanoutStart(int g) {
+        /** Index in topFanout of the first top level wire out of gate g, see topFanoutWire */
+        int lo = 0;
+        int hi = topWires;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if ((int) (topFanout[mid] >>> 32) < g) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    int topFanoutWire(int g, int i) {
+        /** The top level wire at index i of topFanout if it is out of gate g, else -1 */
+        return i < topWires && (int) (topFanout[i] >>> 32) == g ? (int) topFanout[i] : -1;
+    }
+
+    byte gateType(int g) {
+        if (g < topGates) {
+            return topType[g];
+        }
+        int i = instanceOfGate(g);
+        return module(i).gateType[g - gateBase[i]];
+    }
+
+    int inputCount(int g) {
+        if (g < topGates) {
+            return topFaninStart[g + 1] - topFaninStart[g];
+        }
+        int i = instanceOfGate(g);
+        int l = g - gateBase[i];
+        CompiledCircuit m = module(i);
+        return m.faninStart[l + 1] - m.faninStart[l];
+    }
+
+    @Override
+    public int gateCount() {  return gateCount;  }
+
+    @Override
+    public String gateName(int g) {
+        if (g < topGates) {
+            return topName[g];
+        }
+        int i = instanceOfGate(g);
+        return instanceName[i] + "." + module(i).gateName[g - gateBase[i]];
+    }
+
+    @Override
+    public int gateDelay(int g) {
+        if (g < topGates) {
+            return topDelay[g];
+        }
+        int i = instanceOfGate(g);
+        return module(i).gateDelay[g - gateBase[i]];
+    }
+
+    CompiledCircuit flatten() {
+        /** The CompiledCircuit of the same gate and wire ids, every gate named and stored on its own
+         */
+        String[] name = new String[gateCount];
+        byte[] type = new byte[gateCount];
+        int[] delay = new int[gateCount];
+        int[] faninStart = new int[gateCount + 1];
+        int[] source = Arrays.copyOf(wireSource, wireCount);
+        int[] dest = Arrays.copyOf(wireDest, wireCount);
+        int[] input = Arrays.copyOf(wireInput, wireCount);
+        int[] wDelay = Arrays.copyOf(wireDelay, wireCount);
+        System.arraycopy(topName, 0, name, 0, topGates);
+        System.arraycopy(topType, 0, type, 0, topGates);
+        System.arraycopy(topDelay, 0, delay, 0, topGates);
+        long fanin = topFaninWire.length;
+        for (int i = 0; i < instanceName.length; i++) {
+            CompiledCircuit m = module(i);
+            int g0 = gateBase[i];
+            int w0 = wireBase[i];
+            for (int l = 0; l < m.gateCount; l++) {
+                name[g0 + l] = instanceName[i] + "." + m.gateName[l];
+            }
+            System.arraycopy(m.gateType, 0, type, g0, m.gateCount);
+            System.arraycopy(m.gateDelay, 0, delay, g0, m.gateCount);
+            for (int l = 0; l < m.wireCount; l++) {
+                source[w0 + l] = g0 + m.wireSource[l];
+                dest[w0 + l] = g0 + m.wireDest[l];
+            }
+            System.arraycopy(m.wireInput, 0, input, w0, m.wireCount);
+            System.arraycopy(m.wireDelay, 0, wDelay, w0, m.wireCount);
+            fanin += m.faninWire.length;
+        }
+        if (fanin > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("more than " + Integer.MAX_VALUE + " gate inputs");
+        }
+        for (int g = 0; g < gateCount; g++) {
+            faninStart[g + 1] = faninStart[g] + inputCount(g);
+        }
+        int[] faninWire = new int[(int) fanin];
+        System.arraycopy(topFaninWire, 0, faninWire, 0, topFaninWire.length);
+        for (int i = 0; i < instanceName.length; i++) {
+            CompiledCircuit m = module(i);
+            int from = faninStart[gateBase[i]];
+            for (int f = 0; f < m.faninWire.length; f++) {
+                faninWire[from + f] = m.faninWire[f] < 0 ? -1 : wireBase[i] + m.faninWire[f];
+            }
+        }
+        for (int w = 0; w < topWires; w++) {
+            if (wireDest[w] >= topGates) {  //the open inputs of the instances
+                faninWire[faninStart[wireDest[w]] + wireInput[w]] = w;
+            }
+        }
+        return CompiledCircuit.assemble(name, type, delay, faninStart, faninWire, source, dest, input, wDelay);
+    }
+
+    void writeCircuit(PrintStream out) {
+        /** Writes the modules, the instances, then the top level gates and wires
+         */
+        for (ModuleTemplate m : modules) {
+            out.println("module " + m.name);
+            m.circuit.writeCircuit(out);
+            out.println("end");
+        }
+        for (int i = 0; i < instanceName.length; i++) {
+            out.println("instance " + modules[instanceModule[i]].name + " " + instanceName[i]);
+        }
+        for (int g = 0; g < topGates; g++) {
+            int inputs = topFaninStart[g + 1] - topFaninStart[g];
+            out.println("gate " + NetlistBuilder.TYPE_NAMES[topType[g]] + " " + topName[g] + " " + CompiledCircuit.toTime(topDelay[g])
+                    + (CompiledCircuit.isWide(topType[g]) && inputs != 2 ? " " + inputs : ""));
+        }
+        for (int w = 0; w < topWires; w++) {
+            out.println("wire " + gateName(wireSource[w]) + " " + gateName(wireDest[w]) + " " + wireInput[w] + " " + CompiledCircuit.toTime(wireDelay[w]));
+        }
+    }
+}
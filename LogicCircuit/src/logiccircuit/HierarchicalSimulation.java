@@ -0,0 +1,163 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * HierarchicalSimulation runs the event driven simulation of CompiledSimulation over a HierarchicalCircuit,
+ * without expanding it: the only arrays the size of the circuit are the values of the gates and wires and the
+ * count of inputs at 1 of each gate, everything else is read from the module of the instance an event falls in.
+ * It uses the same events, keys and transport delays, so it writes the trace CompiledSimulation writes for
+ * the flattened circuit.
+ * @see HierarchicalCircuit#flatten()
+ * @see CompiledSimulation
+ */
+class HierarchicalSimulation {
+    final HierarchicalCircuit circuit;
+    final boolean[] gateValue;
+    final boolean[] wireValue;
+    final int[] ones;  //per gate, input wires at 1
+    final EventScheduler eventQueue;
+    final TraceSink trace;
+    long now;          //key of the event being run
+    long eventCount;   //events run so far
+    private long[] reported = new long[16];  //(gate << 1 | value) reported while the current key runs
+    private int reportedCount;
+
+    HierarchicalSimulation(HierarchicalCircuit circuit, EventScheduler eventQueue, TraceSink trace) {
+        this.circuit = circuit;
+        this.eventQueue = eventQueue;
+        this.trace = trace;
+        gateValue = new boolean[circuit.gateCount];
+        wireValue = new boolean[circuit.wireCount];
+        ones = new int[circuit.gateCount];
+    }
+
+    public void runSimulation() throws IOException {
+        trace.begin(circuit);
+        initSimulation();
+        while (!eventQueue.isEmpty()) {
+            long key = eventQueue.peekTime();
+            runEvent(key, eventQueue.poll());
+        }
+        flushTrace();
+        trace.flush();
+    }
+
+    public void initSimulation() {
+        /** Initialize all values false in order switch not, nand and nor to true, in gate id order
+         */
+        HierarchicalCircuit c = circuit;
+        for (int g = 0; g < c.topGates; g++) {
+            if (CompiledCircuit.startsHigh(c.topType[g])) {
+                eventQueue.add(CompiledSimulation.gateKey(0), CompiledSimulation.gateEvent(g));
+            }
+        }
+        for (int i = 0; i < c.instanceName.length; i++) {
+            for (int g : c.modules[c.instanceModule[i]].startsHigh) {
+                eventQueue.add(CompiledSimulation.gateKey(0), CompiledSimulation.gateEvent(c.gateBase[i] + g));
+            }
+        }
+    }
+
+    private void runEvent(long key, long code) throws IOException {
+        if (key != now) {
+            flushTrace();
+            now = key;
+        }
+        eventCount++;
+        int id = CompiledSimulation.eventId(code);
+        if (CompiledSimulation.eventKind(code) == CompiledSimulation.GATE_EVENT) {
+            runGateEvent(id);
+        } else {
+            runWireEvent(id);
+        }
+    }
+
+    private void flushTrace() throws IOException {
+        /** Passes the transitions reported at the current key to the trace, in gate id order */
+        if (reportedCount > 1) {
+            Arrays.sort(reported, 0, reportedCount);
+        }
+        long tick = CompiledSimulation.tickOf(now);
+        for (int i = 0; i < reportedCount; i++) {
+            int g = (int) (reported[i] >>> 1);
+            trace.gateChanged(tick + circuit.gateDelay(g), g, (reported[i] & 1) != 0);
+        }
+        reportedCount = 0;
+    }
+
+    private void scheduleWire(int w, long tick) {
+        eventQueue.add(Math.max(CompiledSimulation.wireKey(tick), now), CompiledSimulation.wireEvent(w));
+    }
+
+    private void runGateEvent(int g) {
+        /** Evaluates gate g, a change is reported and passed on to the wires out of it inside its instance
+         * and at the top level
+         */
+        HierarchicalCircuit c = circuit;
+        CompiledCircuit m = null;
+        int i = -1;
+        int l = g;
+        byte type;
+        int inputs;
+        int delay;
+        if (g < c.topGates) {
+            type = c.topType[g];
+            inputs = c.topFaninStart[g + 1] - c.topFaninStart[g];
+            delay = c.topDelay[g];
+        } else {
+            i = c.instanceOfGate(g);
+            m = c.module(i);
+            l = g - c.gateBase[i];
+            type = m.gateType[l];
+            inputs = m.faninStart[l + 1] - m.faninStart[l];
+            delay = m.gateDelay[l];
+        }
+        boolean changeVal = CompiledSimulation.evaluate(type, ones[g], inputs, gateValue[g]);
+        //A not gate always reports its value, the other gates only report a change
+        if (type != CompiledCircuit.NOT && gateValue[g] == changeVal) {
+            return;
+        }
+        gateValue[g] = changeVal;
+        if (reportedCount == reported.length) {
+            reported = Arrays.copyOf(reported, reportedCount * 2);
+        }
+        reported[reportedCount++] = (long) g << 1 | (changeVal ? 1 : 0);
+        long totalDelay = CompiledSimulation.tickOf(now) + delay;
+        if (m != null) {
+            for (int f = m.fanoutStart[l]; f < m.fanoutStart[l + 1]; f++) {
+                scheduleWire(c.wireBase[i] + m.fanoutWire[f], totalDelay);
+            }
+        }
+        for (int f = c.topFanoutStart(g), w; (w = c.topFanoutWire(g, f)) >= 0; f++) {
+            scheduleWire(w, totalDelay);
+        }
+    }
+
+    private void runWireEvent(int w) {
+        /** Copies the value of the source gate onto wire w and schedules its destination gate */
+        HierarchicalCircuit c = circuit;
+        int source;
+        int dest;
+        int delay;
+        if (w < c.topWires) {
+            source = c.wireSource[w];
+            dest = c.wireDest[w];
+            delay = c.wireDelay[w];
+        } else {
+            int i = c.instanceOfWire(w);
+            CompiledCircuit m = c.module(i);
+            int l = w - c.wireBase[i];
+            source = c.gateBase[i] + m.wireSource[l];
+            dest = c.gateBase[i] + m.wireDest[l];
+            delay = m.wireDelay[l];
+        }
+        boolean value = gateValue[source];
+        if (wireValue[w] != value) {
+            wireValue[w] = value;
+            ones[dest] += value ? 1 : -1;
+        }
+        eventQueue.add(CompiledSimulation.gateKey(CompiledSimulation.tickOf(now) + delay), CompiledSimulation.gateEvent(dest));
+    }
+}
@@ -0,0 +1,280 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * IncrementalSimulator keeps a circuit and its last simulated waveform in memory for what-if exploration:
+ * after a gate delay, a wire delay or an input is edited, only the transitive fan-out cone of the edited element
+ * is simulated again, from the earliest time the edit can make a difference, and the result replaces the
+ * waveform of the cone from that time on.  The rest of the waveform cannot change, nothing outside the cone
+ * depends on the cone.
+ *
+ * The waveform of a gate is the list of its reported values with the tick of the evaluation that reported them.
+ * Before an edit at key k0 the run is the same as before, so the state of the cone at k0 and the events pending
+ * then are rebuilt from the waveform: the values of the cone gates and of the wires into the cone, the wire and
+ * gate events scheduled before k0 for k0 or later, and the wire events of the gates outside the cone, which are
+ * replayed as remote wire events carrying their value.  The merged trace is the trace a full simulation of the
+ * edited circuit writes.  Delays are transport delays, and the delay tables of the circuit are edited in place.
+ * @see CompiledSimulation
+ */
+class IncrementalSimulator {
+    final CompiledCircuit circuit;
+    private final long endKey;              //events at endKey or later are not simulated
+    private final long[][] wave;            //per gate, (evaluation tick << 1 | value) in run order
+    private final int[] waveCount;
+    private final long[][] stimulus;        //per input gate, (tick << 1 | value) in tick order
+    private final int[] stimulusCount;
+    private final HashMap<String, Integer> gateIds = new HashMap<>();
+    private boolean simulated;              //edits before the first run only change the tables
+    long coneSize;                          //gates simulated again by the last edit
+    long eventCount;                        //events run by the last simulation
+
+    IncrementalSimulator(CompiledCircuit circuit, long endTick) {
+        this.circuit = circuit;
+        this.endKey = endTick == Long.MAX_VALUE ? Long.MAX_VALUE : CompiledSimulation.wireKey(endTick);
+        wave = new long[circuit.gateCount][];
+        waveCount = new int[circuit.gateCount];
+        stimulus = new long[circuit.gateCount][];
+        stimulusCount = new int[circuit.gateCount];
+        for (int g = 0; g < circuit.gateCount; g++) {
+            gateIds.put(circuit.gateName[g], g);
+        }
+    }
+
+    int gate(String name) {
+        Integer g = gateIds.get(name);
+        if (g == null) {
+            throw new IllegalArgumentException(name + ", no such gate");
+        }
+        return g;
+    }
+
+    int wire(int source, int dest, int input) {
+        /** The wire from source to the given input of dest */
+        for (int i = circuit.faninStart[dest]; i < circuit.faninStart[dest + 1]; i++) {
+            int w = circuit.faninWire[i];
+            if (circuit.wireSource[w] == source && circuit.wireInput[w] == input) {
+                return w;
+            }
+        }
+        throw new IllegalArgumentException("wire " + circuit.gateName[source] + " " + circuit.gateName[dest] + ", no such wire");
+    }
+
+    void run() throws IOException {
+        /** Simulates the whole circuit, the waveform every edit starts from */
+        Arrays.fill(waveCount, 0);
+        CompiledSimulation sim = new CompiledSimulation(circuit, new TimingWheel(), new Recorder());
+        sim.initSimulation();
+        for (int g = 0; g < circuit.gateCount; g++) {
+            for (int i = 0; i < stimulusCount[g]; i++) {
+                sim.schedule(CompiledSimulation.gateKey(stimulus[g][i] >> 1), CompiledSimulation.inputEvent(g, (stimulus[g][i] & 1) != 0));
+            }
+        }
+        sim.runBefore(endKey);
+        simulated = true;
+        coneSize = circuit.gateCount;
+        eventCount = sim.eventCount;
+    }
+
+    void setGateDelay(int g, float delay) throws IOException {
+        /** Gate g reports its first value at its first evaluation, nothing before that depends on its delay */
+        circuit.gateDelay[g] = CompiledCircuit.toTicks(delay);
+        if (waveCount[g] > 0) {
+            resimulate(g, CompiledSimulation.gateKey(wave[g][0] >> 1));
+        }
+    }
+
+    void setWireDelay(int w, float delay) throws IOException {
+        /** Nothing before the first wire event of w depends on its delay */
+        circuit.wireDelay[w] = CompiledCircuit.toTicks(delay);
+        int s = circuit.wireSource[w];
+        circuit.sortNet(s);
+        if (waveCount[s] > 0) {
+            resimulate(circuit.wireDest[w], wireEventKey(s, wave[s][0]));
+        }
+    }
+
+    void setInput(int g, float time, boolean value) throws IOException {
+        /** Sets input gate g to value at time, replacing any change the stimulus already has then
+         */
+        if (circuit.gateType[g] != CompiledCircuit.INPUT) {
+            throw new IllegalArgumentException(circuit.gateName[g] + " is not an input");
+        }
+        long tick = CompiledCircuit.toTicks(time);
+        long change = tick << 1 | (value ? 1 : 0);
+        long[] s = stimulus[g] == null ? new long[4] : stimulus[g];
+        int n = stimulusCount[g];
+        int i = 0;
+        while (i < n && s[i] >> 1 < tick) {
+            i++;
+        }
+        if (i < n && s[i] >> 1 == tick) {
+            s[i] = change;
+        } else {
+            if (n == s.length) {
+                s = Arrays.copyOf(s, n * 2);
+            }
+            System.arraycopy(s, i, s, i + 1, n - i);
+            s[i] = change;
+            stimulusCount[g] = n + 1;
+        }
+        stimulus[g] = s;
+        resimulate(g, CompiledSimulation.gateKey(tick));
+    }
+
+    private long wireEventKey(int source, long entry) {
+        /** The key of the wire events an evaluation of source schedules, a gate with no delay schedules
+         * them for the phase it runs in
+         */
+        long tick = entry >> 1;
+        int d = circuit.gateDelay[source];
+        return d == 0 ? CompiledSimulation.gateKey(tick) : CompiledSimulation.wireKey(tick + d);
+    }
+
+    private int lastBefore(int g, long key) {
+        /** Index of the last entry of gate g evaluated before key, -1 if none */
+        int lo = 0;
+        int hi = waveCount[g];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (CompiledSimulation.gateKey(wave[g][mid] >> 1) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    private boolean valueBefore(int g, long key) {
+        /** The value of gate g as the events at key see it */
+        int i = lastBefore(g, key);
+        return i >= 0 && (wave[g][i] & 1) != 0;
+    }
+
+    private boolean[] cone(int root) {
+        boolean[] in = new boolean[circuit.gateCount];
+        int[] stack = new int[circuit.gateCount];
+        int top = 0;
+        in[root] = true;
+        stack[top++] = root;
+        coneSize = 1;
+        while (top > 0) {
+            int g = stack[--top];
+            for (int i = circuit.fanoutStart[g]; i < circuit.fanoutStart[g + 1]; i++) {
+                int d = circuit.wireDest[circuit.fanoutWire[i]];
+                if (!in[d]) {
+                    in[d] = true;
+                    stack[top++] = d;
+                    coneSize++;
+                }
+            }
+        }
+        return in;
+    }
+
+    private void resimulate(int root, long k0) throws IOException {
+        /** Simulates the fan-out cone of root again from key k0 and replaces its waveform from k0 on
+         */
+        if (!simulated) {
+            return;
+        }
+        CompiledCircuit c = circuit;
+        boolean[] inCone = cone(root);
+        boolean[] gateValue = new boolean[c.gateCount];
+        boolean[] wireValue = new boolean[c.wireCount];
+        CompiledSimulation sim = new CompiledSimulation(c, new TimingWheel(), new Recorder(), gateValue, wireValue);
+        for (int g = 0; g < c.gateCount; g++) {
+            if (!inCone[g]) {
+                continue;
+            }
+            gateValue[g] = valueBefore(g, k0);
+            if (CompiledCircuit.startsHigh(c.gateType[g]) && k0 <= CompiledSimulation.gateKey(0)) {
+                sim.schedule(CompiledSimulation.gateKey(0), CompiledSimulation.gateEvent(g));
+            }
+            for (int i = 0; i < stimulusCount[g]; i++) {
+                long key = CompiledSimulation.gateKey(stimulus[g][i] >> 1);
+                if (key >= k0) {
+                    sim.schedule(key, CompiledSimulation.inputEvent(g, (stimulus[g][i] & 1) != 0));
+                }
+            }
+            for (int i = c.faninStart[g]; i < c.faninStart[g + 1]; i++) {
+                restoreWire(sim, c.faninWire[i], k0, inCone);
+            }
+        }
+        for (int g = 0; g < c.gateCount; g++) {
+            if (inCone[g]) {
+                waveCount[g] = lastBefore(g, k0) + 1;
+            }
+        }
+        sim.recount();
+        sim.runBefore(endKey);
+        eventCount = sim.eventCount;
+    }
+
+    private void restoreWire(CompiledSimulation sim, int w, long k0, boolean[] inCone) {
+        /** Rebuilds wire w into the cone at k0 from the waveform of its source: its value, the gate event its last
+         * wire event before k0 scheduled, and its wire events from k0 on.  A source in the cone is simulated
+         * again, so only the wire events its evaluations before k0 scheduled are queued
+         */
+        CompiledCircuit c = circuit;
+        int s = c.wireSource[w];
+        int n = inCone[s] ? lastBefore(s, k0) + 1 : waveCount[s];
+        for (int i = 0; i < n; i++) {
+            long key = wireEventKey(s, wave[s][i]);
+            if (key < k0) {
+                sim.wireValue[w] = valueBefore(s, key + 1);
+                long gateKey = CompiledSimulation.gateKey(CompiledSimulation.tickOf(key) + c.wireDelay[w]);
+                if (gateKey >= k0) {
+                    sim.schedule(gateKey, CompiledSimulation.gateEvent(c.wireDest[w]));
+                }
+            } else if (inCone[s]) {
+                sim.schedule(key, CompiledSimulation.wireEvent(w));
+            } else {
+                sim.schedule(key, CompiledSimulation.remoteWireEvent(w, valueBefore(s, key + 1)));
+            }
+        }
+    }
+
+    void writeTrace(TraceSink trace) throws IOException {
+        /** Writes the waveform in the order a full simulation reports it: by evaluation key, then by gate id
+         */
+        int[] pos = new int[circuit.gateCount];
+        PriorityQueue<Integer> next = new PriorityQueue<>(Math.max(1, circuit.gateCount), (a, b) -> {
+            int byTick = Long.compare(wave[a][pos[a]] >> 1, wave[b][pos[b]] >> 1);
+            return byTick != 0 ? byTick : Integer.compare(a, b);
+        });
+        for (int g = 0; g < circuit.gateCount; g++) {
+            if (waveCount[g] > 0) {
+                next.add(g);
+            }
+        }
+        trace.begin(circuit);
+        while (!next.isEmpty()) {
+            int g = next.poll();
+            long entry = wave[g][pos[g]++];
+            trace.gateChanged((entry >> 1) + circuit.gateDelay[g], g, (entry & 1) != 0);
+            if (pos[g] < waveCount[g]) {
+                next.add(g);
+            }
+        }
+        trace.flush();
+    }
+
+    private class Recorder extends NullTraceSink {
+        /** Appends the transitions of a simulation to the waveform, each gate reports in evaluation order */
+        @Override
+        public void gateChanged(long tick, int g, boolean value) {
+            long[] w = wave[g];
+            if (w == null) {
+                w = wave[g] = new long[4];
+            } else if (waveCount[g] == w.length) {
+                w = wave[g] = Arrays.copyOf(w, w.length * 2);
+            }
+            w[waveCount[g]++] = (tick - circuit.gateDelay[g]) << 1 | (value ? 1 : 0);
+        }
+    }
+}
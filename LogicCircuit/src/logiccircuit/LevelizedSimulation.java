@@ -0,0 +1,120 @@
+package com.rwedoff;
+
+import java.io.IOException;
+
+/**
+ * LevelizedSimulation computes the settled values of a circuit without an event queue or any delays.
+ * The gates are evaluated in the topological order a Levelizer finds, each one from the gates driving its inputs,
+ * so logic of any depth settles in one linear pass over flat arrays.
+ *
+ * A complete circuit without input gates has combinational loops, since every gate has an input that some gate must
+ * drive; input gates are driven by nothing, and here keep the false they start at.
+ * A wire that closes a loop, a feedback wire, reads its source as it was at the end of the last cycle,
+ * which happens by itself because its source comes later in the order and has not been evaluated yet.
+ * So each pass is one cycle of a cycle based simulation, and the values a cycle changes are reported to a
+ * TraceSink at time = cycle number.
+ * @see Levelizer
+ */
+class LevelizedSimulation {
+    final CompiledCircuit circuit;
+    final Levelizer levels;
+    /** Per position tables, position p holds gate levels.order[p] */
+    private final byte[] type;
+    private final int[] faninStart;
+    private final int[] faninPos;   //positions of the gates driving the inputs
+    private final boolean[] value;
+    private final TraceSink trace;
+    int cycles;                     //cycles run so far
+
+    LevelizedSimulation(CompiledCircuit circuit, Levelizer levels, TraceSink trace) {
+        this.circuit = circuit;
+        this.levels = levels;
+        this.trace = trace;
+        int n = circuit.gateCount;
+        int[] position = new int[n];
+        for (int p = 0; p < n; p++) {
+            position[levels.order[p]] = p;
+        }
+        type = new byte[n];
+        faninStart = new int[n + 1];
+        faninPos = new int[circuit.faninWire.length];
+        value = new boolean[n];
+        int f = 0;
+        for (int p = 0; p < n; p++) {
+            int g = levels.order[p];
+            type[p] = circuit.gateType[g];
+            faninStart[p] = f;
+            for (int i = circuit.faninStart[g]; i < circuit.faninStart[g + 1]; i++) {
+                faninPos[f++] = position[circuit.wireSource[circuit.faninWire[i]]];
+            }
+        }
+        faninStart[n] = f;
+    }
+
+    boolean gateValue(int g) {
+        return value[levels.position(g)];
+    }
+
+    boolean cycle() throws IOException {
+        /** Evaluates every gate once in level order, returns whether any gate changed
+         */
+        cycles++;
+        long tick = (long) cycles * CompiledCircuit.TICKS_PER_UNIT;
+        boolean changed = false;
+        for (int p = 0; p < type.length; p++) {
+            int first = faninStart[p];
+            int last = faninStart[p + 1];
+            boolean v;
+            switch (type[p]) {
+                case CompiledCircuit.AND:
+                    v = true;
+                    for (int i = first; i < last && v; i++)
+                        v = value[faninPos[i]];
+                    break;
+                case CompiledCircuit.OR:
+                    v = false;
+                    for (int i = first; i < last && !v; i++)
+                        v = value[faninPos[i]];
+                    break;
+                case CompiledCircuit.NAND:
+                    v = false;
+                    for (int i = first; i < last && !v; i++)
+                        v = !value[faninPos[i]];
+                    break;
+                case CompiledCircuit.NOR:
+                    v = true;
+                    for (int i = first; i < last && v; i++)
+                        v = !value[faninPos[i]];
+                    break;
+                case CompiledCircuit.XOR:
+                    v = false;
+                    for (int i = first; i < last; i++)
+                        v ^= value[faninPos[i]];
+                    break;
+                case CompiledCircuit.INPUT:
+                    v = value[p];  //inputs have no stimulus here and stay false
+                    break;
+                default:
+                    v = !value[faninPos[first]];
+            }
+            if (v != value[p]) {
+                value[p] = v;
+                changed = true;
+                trace.gateChanged(tick, levels.order[p], v);
+            }
+        }
+        return changed;
+    }
+
+    boolean run(int maxCycles) throws IOException {
+        /** Runs cycles until no gate changes or maxCycles have run, returns whether the circuit settled
+         */
+        trace.begin(circuit);
+        boolean settled = false;
+        while (cycles < maxCycles && !settled) {
+            settled = !cycle();
+        }
+        trace.flush();
+        return settled;
+    }
+}
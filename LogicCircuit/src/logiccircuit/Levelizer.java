@@ -0,0 +1,162 @@
+package com.rwedoff;
+
+import java.util.Arrays;
+
+class Levelizer {
+    /** Levelizer orders the gates of a circuit so that every gate comes after the gates driving it,
+     * except along the wires that close a combinational loop.
+     * The loops are the strongly connected components of the gate graph, found with Tarjan's algorithm,
+     * which also lists them in reverse topological order.  Inside a loop the gates keep the order the depth
+     * first search reached them in, so only the wires back to an earlier gate of the loop are feedback wires.
+     */
+    final int[] order;        //gates in evaluation order
+    final int[] level;        //per gate, longest chain of forward wires leading to it
+    final int[] loopStart;    //gates of loop i are loopGate[loopStart[i] .. loopStart[i+1])
+    final int[] loopGate;
+    final int feedbackWires;
+    private final int[] position;
+
+    Levelizer(CompiledCircuit c) {
+        int n = c.gateCount;
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] call = new int[n];      //the depth first search, as an explicit stack of gates
+        int[] edge = new int[n];      //next out wire to follow, per gate on the call stack
+        int[] sccGate = new int[n];   //components in the order Tarjan finds them
+        int[] sccStart = new int[n + 1];
+        boolean[] isLoop = new boolean[n + 1];
+        int sccCount = 0;
+        int sccFill = 0;
+        int next = 0;
+        int top = 0;
+        Arrays.fill(index, -1);
+        for (int s = 0; s < n; s++) {
+            if (index[s] != -1) {
+                continue;
+            }
+            int depth = 0;
+            call[depth++] = s;
+            index[s] = low[s] = next++;
+            edge[s] = c.fanoutStart[s];
+            stack[top++] = s;
+            onStack[s] = true;
+            while (depth > 0) {
+                int g = call[depth - 1];
+                if (edge[g] < c.fanoutStart[g + 1]) {
+                    int d = c.wireDest[c.fanoutWire[edge[g]++]];
+                    if (index[d] == -1) {
+                        index[d] = low[d] = next++;
+                        edge[d] = c.fanoutStart[d];
+                        stack[top++] = d;
+                        onStack[d] = true;
+                        call[depth++] = d;
+                    } else if (onStack[d]) {
+                        low[g] = Math.min(low[g], index[d]);
+                    }
+                    continue;
+                }
+                depth--;
+                if (depth > 0) {
+                    int parent = call[depth - 1];
+                    low[parent] = Math.min(low[parent], low[g]);
+                }
+                if (low[g] == index[g]) {
+                    int bottom = top;
+                    do {
+                        onStack[stack[--bottom]] = false;
+                    } while (stack[bottom] != g);
+                    sccStart[sccCount] = sccFill;
+                    for (int i = bottom; i < top; i++) {  //stack order is the order the search reached them
+                        sccGate[sccFill++] = stack[i];
+                    }
+                    isLoop[sccCount] = top - bottom > 1 || selfLoop(c, g);
+                    sccCount++;
+                    top = bottom;
+                }
+            }
+        }
+        sccStart[sccCount] = sccFill;
+
+        order = new int[n];
+        position = new int[n];
+        int p = 0;
+        int loops = 0;
+        int loopGates = 0;
+        for (int s = sccCount - 1; s >= 0; s--) {
+            for (int i = sccStart[s]; i < sccStart[s + 1]; i++) {
+                position[sccGate[i]] = p;
+                order[p++] = sccGate[i];
+            }
+            if (isLoop[s]) {
+                loops++;
+                loopGates += sccStart[s + 1] - sccStart[s];
+            }
+        }
+        loopStart = new int[loops + 1];
+        loopGate = new int[loopGates];
+        int l = 0;
+        int f = 0;
+        for (int s = sccCount - 1; s >= 0; s--) {
+            if (isLoop[s]) {
+                loopStart[l++] = f;
+                for (int i = sccStart[s]; i < sccStart[s + 1]; i++) {
+                    loopGate[f++] = sccGate[i];
+                }
+            }
+        }
+        loopStart[loops] = f;
+
+        level = new int[n];
+        int feedback = 0;
+        for (int g : order) {
+            for (int i = c.faninStart[g]; i < c.faninStart[g + 1]; i++) {
+                int source = c.wireSource[c.faninWire[i]];
+                if (position[source] >= position[g]) {
+                    feedback++;
+                } else {
+                    level[g] = Math.max(level[g], level[source] + 1);
+                }
+            }
+        }
+        feedbackWires = feedback;
+    }
+
+    private static boolean selfLoop(CompiledCircuit c, int g) {
+        for (int i = c.fanoutStart[g]; i < c.fanoutStart[g + 1]; i++) {
+            if (c.wireDest[c.fanoutWire[i]] == g) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int position(int g) {
+        return position[g];
+    }
+
+    int loopCount() {
+        return loopStart.length - 1;
+    }
+
+    int depth() {
+        int d = 0;
+        for (int l : level) {
+            d = Math.max(d, l + 1);
+        }
+        return d;
+    }
+
+    String describeLoop(CompiledCircuit c, int i) {
+        /** Names the gates of loop i in evaluation order */
+        StringBuilder sb = new StringBuilder();
+        for (int j = loopStart[i]; j < loopStart[i + 1]; j++) {
+            if (j > loopStart[i]) {
+                sb.append(", ");
+            }
+            sb.append(c.gateName[loopGate[j]]);
+        }
+        return sb.toString();
+    }
+}
@@ -2,8 +2,13 @@ package com.rwedoff;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
 
 /**
 * This program is a digital logic circuit runSimulation, it takes in an input file, parses the
@@ -30,6 +35,14 @@ abstract class Event{
         eventObject = w;
     }
 
+    void reset(Object o, float simTime){
+        /** Reuses a pooled event for a new object and time
+         * @see EventSink
+         */
+        eventDelay = simTime;
+        eventObject = o;
+    }
+
     public Object getEventObject() {
         return eventObject;
     }
@@ -42,9 +55,18 @@ abstract class Event{
     public String toString(){
         return "Event: " + eventObject.toString();
     }
-    public abstract ArrayList<Event> runEvent(float delay, HashMap<String, Gate> gates);
+    public abstract void runEvent(float delay, EventSink sink);
 
 }
+
+interface EventSink {
+    /** An EventSink receives the events that running a gate or wire event schedules,
+     * so gates and wires hand them straight to the event queue instead of building lists of new events.
+     * @see LogicCircuit.Simulation.EventPool
+     */
+    void scheduleGate(Gate g, float simTime);
+    void scheduleWire(Wire w, float simTime);
+}
 class GateEvent extends Event{
     /**Gate event is a subclass of event.  It is an event handler that is specific to gates
      * @see Gate
@@ -56,9 +78,18 @@ class GateEvent extends Event{
         gate = g;
     }
 
+    public Gate getGate() {
+        return gate;
+    }
+
+    void reset(Gate g, float simTime) {
+        super.reset(g, simTime);
+        gate = g;
+    }
+
     @Override
-    public ArrayList<Event> runEvent(float delay, HashMap<String, Gate> gates) {
-        return gate.runGateEvent(delay);
+    public void runEvent(float delay, EventSink sink) {
+        gate.runGateEvent(delay, sink);
     }
 }
 
@@ -73,11 +104,14 @@ class WireEvent extends Event{
         wire  = w;
     }
 
+    void reset(Wire w, float simTime) {
+        super.reset(w, simTime);
+        wire = w;
+    }
+
     @Override
-    public ArrayList<Event> runEvent(float delay, HashMap<String, Gate> gates) {
-        ArrayList<Event> res = new ArrayList<>();
-        res.add(wire.runWireEvent(delay,gates));
-        return res;
+    public void runEvent(float delay, EventSink sink) {
+        wire.runWireEvent(delay, sink);
     }
 
 }
@@ -112,23 +146,6 @@ class RoundFloat{
     }
 }
 
-class Errors {
-    /** Error reporting framework
-     * This idea was taken from Prof. Jones solution MP1
-    */
-    static void fatal( String message ) {
-        /** Report a fatal error with the given message
-        */
-        System.err.println( "Error: " + message );
-        System.exit( 1 );
-    }
-    static void warn( String message ) {
-    /** Report a nonfatal error with the given message
-     */
-        System.err.println( "Error: " + message );
-    }
-}
-
 class SyntaxCheck {
 /** Syntax checking support
  * This idea was taken from Prof Jones' solution to MP1, however the method is not the same
@@ -157,6 +174,7 @@ class SyntaxCheck {
      private String gateName;
      private Wire [] inputList;
      boolean gateValue; //Bool value of what the gate is
+     int ones;  //inputs at 1, kept by the wire events so wide gates evaluate without scanning their inputs
      private ArrayList<Wire> outWires;
 
      /**Getters and setters for gate class */
@@ -191,7 +209,7 @@ class SyntaxCheck {
              if(sc.hasNextFloat()){
                  setDelay(sc.nextFloat());
         setGateType(gt);
-        if(SyntaxCheck.lineEnd(sc, "gate " + gt + " " + getGateName()))
+        if(scanInputs(sc) && SyntaxCheck.lineEnd(sc, "gate " + gt + " " + getGateName()))
             return true;
     }
     else Errors.warn( sc.next() + ", number expected");
@@ -201,6 +219,11 @@ class SyntaxCheck {
         return false;
         }
 
+     boolean scanInputs(Scanner sc){
+         /** Reads what follows the delay of the gate, only wide gates take anything there */
+         return true;
+     }
+
 public boolean setAllInputs(Wire w, int inputNum){
         Wire[] currInputList = inputList;
         if(inputNum >= currInputList.length){
@@ -216,16 +239,30 @@ public boolean setAllInputs(Wire w, int inputNum){
  }
 
     public String inputName(int in){
-        if(in == 0){
-        return "in1";
-        } else if(in == 1){
-        return "in2";
+        if(in >= 0 && in < inputList.length){
+        return "in" + (in + 1);
         } else{
         Errors.warn( in + " is not a valid input");
         return "";
         }
     }
-     public abstract ArrayList<Event> runGateEvent(float delay);
+     /** Computes the value of the gate from the current values of its input wires */
+     public abstract boolean evaluate();
+
+     /** Runs a gate event at simDelay, any new events are handed to the sink */
+     public abstract void runGateEvent(float simDelay, EventSink sink);
+
+     void propagate(boolean changeVal, float simDelay, EventSink sink){
+         /** Sets the gate to its new value, logs it and schedules a wire event on every out wire
+          */
+         gateValue = changeVal;
+         float totalDelay = simDelay + getDelay();
+         totalDelay = RoundFloat.round(totalDelay,2);
+         System.out.println("Time " + totalDelay + " Gate " + getGateName() + " goes to " + gateValue);
+         for (int i = 0; i < outWires.size(); i++) {
+             sink.scheduleWire(outWires.get(i), totalDelay);
+         }
+     }
 
     //Abstract Methods
     public abstract String toString();
@@ -233,15 +270,19 @@ public boolean setAllInputs(Wire w, int inputNum){
 
  }
 
-class AndGate extends Gate{
-    //Gate constructor
-    public AndGate(String operation, HashMap<String,Gate> gates) {
-
-        /*And gate is a subclass of Gate.  And gate takes two inputs
-      */
-        Wire[] inputs = new Wire[2];
-        super.setInputList(inputs);
-        if(scanGate(operation, "and"))
+abstract class WideGate extends Gate{
+    /**
+     * WideGate is a gate of any number of inputs, two unless the number is given after the delay:
+     * gate and name delay inputs
+     * @see AndGate
+     * @see OrGate
+     * @see NandGate
+     * @see NorGate
+     * @see XorGate
+     */
+    WideGate(String operation, HashMap<String,Gate> gates, String type) {
+        super.setInputList(new Wire[2]);
+        if(scanGate(operation, type))
             if(gates.containsKey(getGateName()))
                 Errors.warn("Gate '" + getGateName() + "' has already been defined");
             else
@@ -249,79 +290,94 @@ class AndGate extends Gate{
     }
 
     @Override
-    public ArrayList<Event> runGateEvent(float simDelay) {
-        //System.out.println("CHANGE AND");
-        Wire [] inList = this.getInputList();
-        LinkedList<Boolean> logicVals = new LinkedList<>();
-        for(int i = 0; i<inList.length; i++)
-            logicVals.add(inList[i].wireValue);
-        boolean changeVal = logicVals.get(0) && logicVals.get(1);
-       // System.out.println(gateValue + " : CHANGE VAL: " + changeVal);
-        if(gateValue == changeVal) {
-            return null;
-        } else{
+    boolean scanInputs(Scanner sc) {
+        if(!sc.hasNext())
+            return true;
+        if(!sc.hasNextInt()){
+            Errors.warn(sc.next() + ", number of inputs expected");
+            return false;
+        }
+        int inputs = sc.nextInt();
+        if(inputs < 1){
+            Errors.warn(inputs + ", a gate needs at least one input");
+            return false;
+        }
+        super.setInputList(new Wire[inputs]);
+        return true;
+    }
 
-            gateValue = changeVal;
-            float totalDelay = simDelay + getDelay();
-            totalDelay = RoundFloat.round(totalDelay,2);
-            System.out.println("Time " + totalDelay + " Gate " + getGateName() + " goes to " + gateValue);
-            ArrayList<Event> res = new ArrayList<>();
-            for(Wire w: getOutWires()){
-                res.add(new WireEvent(w, totalDelay));
-            }
-            return res;
+    @Override
+    public void runGateEvent(float simDelay, EventSink sink) {
+        boolean changeVal = evaluate();
+        if(gateValue != changeVal) {
+            propagate(changeVal, simDelay, sink);
         }
     }
 
     @Override
     public String toString(){
-        return  "gate and" + " " +  this.getGateName() +  " " + this.getDelay();
+        int inputs = getInputList().length;
+        return  "gate " + getGateType() + " " +  this.getGateName() +  " " + this.getDelay() + (inputs == 2 ? "" : " " + inputs);
     }
 }
 
-class OrGate extends  Gate{
-    /**
-     * OrGate is a subclass of Gate
-     * OrGate takes two inputs
-     * @see Gate
-     */
+class AndGate extends WideGate{
+    /** AndGate is 1 when all of its inputs are 1 */
+    public AndGate(String operation, HashMap<String,Gate> gates) {
+        super(operation, gates, "and");
+    }
+
+    @Override
+    public boolean evaluate() {
+        return ones == getInputList().length;
+    }
+}
+
+class OrGate extends WideGate{
+    /** OrGate is 1 when any of its inputs is 1 */
     public OrGate(String operation, HashMap<String,Gate> gates) {
-        /*Gate constructor reads the text file input and checks if all the input is valid*/
-        Wire[] inputs = new Wire[2];
-        super.setInputList(inputs);
-        if(scanGate(operation, "or"))
-            if(gates.containsKey(getGateName()))
-                Errors.warn("Gate '" + getGateName() + "' has already been defined");
-            else
-                gates.put(getGateName(),this);
+        super(operation, gates, "or");
     }
 
     @Override
-    public String toString(){
-        return  "gate or" + " " +  this.getGateName() +  " " + this.getDelay();
+    public boolean evaluate() {
+        return ones > 0;
+    }
+}
 
+class NandGate extends WideGate{
+    /** NandGate is 0 when all of its inputs are 1 */
+    public NandGate(String operation, HashMap<String,Gate> gates) {
+        super(operation, gates, "nand");
     }
+
     @Override
-    public ArrayList<Event> runGateEvent(float simDelay) {
-        Wire [] inList = this.getInputList();
-        LinkedList<Boolean> logicVals = new LinkedList<>();
-        //Boolean [] logicVals = new Boolean[2];
-        for(int i = 0; i<inList.length; i++)
-            logicVals.add(inList[i].wireValue);
-        boolean changeVal = logicVals.get(0) || logicVals.get(1);
-        if(gateValue == changeVal) {
-            return null;
-        } else{
-            gateValue = changeVal;
-            float totalDelay = simDelay + getDelay();
-            totalDelay = RoundFloat.round(totalDelay,2);
-            System.out.println("Time " + totalDelay + " Gate " + getGateName() + " goes to " + gateValue);
-            ArrayList<Event> res = new ArrayList<>();
-            for(Wire w: getOutWires()){
-                res.add( new WireEvent(w, totalDelay));
-            }
-            return res;
-        }
+    public boolean evaluate() {
+        return ones < getInputList().length;
+    }
+}
+
+class NorGate extends WideGate{
+    /** NorGate is 1 when none of its inputs is 1 */
+    public NorGate(String operation, HashMap<String,Gate> gates) {
+        super(operation, gates, "nor");
+    }
+
+    @Override
+    public boolean evaluate() {
+        return ones == 0;
+    }
+}
+
+class XorGate extends WideGate{
+    /** XorGate is 1 when an odd number of its inputs are 1 */
+    public XorGate(String operation, HashMap<String,Gate> gates) {
+        super(operation, gates, "xor");
+    }
+
+    @Override
+    public boolean evaluate() {
+        return (ones & 1) != 0;
     }
 }
 
@@ -355,25 +411,49 @@ class NotGate extends Gate{
         }
     }
     @Override
-    public ArrayList<Event> runGateEvent(float simDelay) {
+    public boolean evaluate() {
+        return !this.getInputList()[0].wireValue;
+    }
+
+    @Override
+    public void runGateEvent(float simDelay, EventSink sink) {
         /**
-         * Run gate is an abstract method of Gate that returns a list of events that are triggered in a simulartion
+         * Run gate is an abstract method of Gate that schedules the events that are triggered in a simulartion
+         * A not gate reports its value every time it runs
          * @see LogicCircuit.Simulation
          */
-        Wire [] inList = this.getInputList();
-        LinkedList<Boolean> logicVals = new LinkedList<>();
-        //Boolean [] logicVals = new Boolean[2];
-        for(int i = 0; i<inList.length; i++)
-            logicVals.add(inList[i].wireValue);
-            gateValue = !logicVals.get(0);
-            float totalDelay = simDelay + getDelay();
-            totalDelay = RoundFloat.round(totalDelay,2);
-            System.out.println("Time " + totalDelay + " Gate " + getGateName() + " goes to " + gateValue);
-            ArrayList<Event> res = new ArrayList<>();
-            for(Wire w: getOutWires()){
-                res.add( new WireEvent(w, totalDelay));
-            }
-            return res;
+        propagate(evaluate(), simDelay, sink);
+    }
+}
+
+class InputGate extends Gate{
+    /** InputGate is a primary input of the circuit, a gate with no inputs whose value is set from outside
+     * by a stimulus, it is written gate input name delay
+     * @see StimulusReader
+     */
+    public InputGate(String operation, HashMap<String,Gate> gates) {
+        super.setInputList(new Wire[0]);
+        if(scanGate(operation, "input")){
+            if(gates.containsKey(getGateName()))
+                Errors.warn("Gate '" + getGateName() + "' has already been defined");
+            else
+                gates.put(getGateName(),this);
+        }
+    }
+
+    @Override
+    public String toString(){
+        return  "gate input" + " " +  this.getGateName() +  " " + this.getDelay();
+    }
+
+    @Override
+    public boolean evaluate() {
+        return gateValue;
+    }
+
+    @Override
+    public void runGateEvent(float simDelay, EventSink sink) {
+        /** Nothing drives an input but its stimulus, which the object simulation does not read */
     }
 }
 
@@ -384,6 +464,7 @@ class Wire{
     float delay; //Delay of this wire
     Gate driven;  //what gates does this wire drive
     Gate driver;
+    Gate source;  //the gate that drives this wire
     int input; //What input of that gate does this wire drive
     String sourceGate, destGate;
     boolean wireValue;  //Bool value of what the wire is
@@ -408,7 +489,8 @@ class Wire{
                     if(strInput.equals("in1")) input = 0;
                     else if(strInput.equals("in2")) input = 1;
                     else if(strInput.equals("in") && gates.get(destGate).getGateType().equals("not")) input = 0;
-                    else Errors.warn("wire " + sourceGate + " "+ destGate +  " Input String Expected (in1, in2, in)");
+                    else if(strInput.matches("in[1-9][0-9]{0,8}")) input = Integer.parseInt(strInput.substring(2)) - 1;
+                    else Errors.warn("wire " + sourceGate + " "+ destGate +  " Input String Expected (in1, in2, ..., in)");
                 }
                 if(sc.hasNextFloat()) {
                     delay = sc.nextFloat();
@@ -437,6 +519,7 @@ class Wire{
         if(gates.containsKey(sourceGate)){
             Gate g = gates.get(sourceGate);
             g.addToOutWire(this);
+            source = g;
             return true;
         } else{
             Errors.warn(sourceGate + ", no such source gate");
@@ -473,14 +556,14 @@ class Wire{
     /**RunWireEvent is the method that a event uses to change the value of a wire and then schedule a new event
      * @see Event
      */
-    public Event runWireEvent(float simDelay, HashMap<String, Gate> gates) {
-        Gate sourceGate = gates.get(this.sourceGate);
-        Gate destGate = gates.get(this.destGate);
-        wireValue = sourceGate.gateValue;
+    public void runWireEvent(float simDelay, EventSink sink) {
+        if (wireValue != source.gateValue) {
+            wireValue = source.gateValue;
+            driven.ones += wireValue ? 1 : -1;
+        }
         float totalDelay = simDelay + delay;
         totalDelay = RoundFloat.round(totalDelay,2);
-        return new GateEvent(destGate, totalDelay);
-
+        sink.scheduleGate(driven, totalDelay);
     }
 }
 
@@ -505,6 +588,14 @@ public class LogicCircuit {
                     new NotGate(ops, gates);
                 } else if (gateType.equalsIgnoreCase("or")) {
                     new OrGate(ops, gates);
+                } else if (gateType.equalsIgnoreCase("nand")) {
+                    new NandGate(ops, gates);
+                } else if (gateType.equalsIgnoreCase("nor")) {
+                    new NorGate(ops, gates);
+                } else if (gateType.equalsIgnoreCase("xor")) {
+                    new XorGate(ops, gates);
+                } else if (gateType.equalsIgnoreCase("input")) {
+                    new InputGate(ops, gates);
                 } else {
                     Errors.warn(gateType + ", no such type of gate");
                 }
@@ -513,6 +604,14 @@ public class LogicCircuit {
                 new Wire(gates, ops, wires);
             } else if (command.contains("//")) { //This allows for line comments in the input language
                 sc.nextLine();
+            } else if (command.equalsIgnoreCase("module") || command.equalsIgnoreCase("instance")) {
+                Errors.warn(command + ", modules and instances are only read with -mmap");
+                boolean definition = command.equalsIgnoreCase("module");
+                do {  //skips the line, or the whole definition of a module
+                    if (sc.hasNextLine()) {
+                        sc.nextLine();
+                    }
+                } while (definition && sc.hasNext() && !sc.next().equalsIgnoreCase("end"));
             } else {
                 Errors.warn(command + " is not a valid operation (Gate or Wire)");
             }
@@ -533,6 +632,19 @@ public class LogicCircuit {
         }
     }
 
+    static void writeLoops(CompiledCircuit circuit, Levelizer levels) {
+        /** Write out the combinational loops of the circuit, only the first few when there are many
+         */
+        System.out.println("\nCombinational loops: " + levels.loopCount() + ", feedback wires: " + levels.feedbackWires
+                + ", depth: " + levels.depth());
+        for (int i = 0; i < levels.loopCount() && i < 20; i++) {
+            System.out.println("loop " + levels.describeLoop(circuit, i));
+        }
+        if (levels.loopCount() > 20) {
+            System.out.println("... and " + (levels.loopCount() - 20) + " more");
+        }
+    }
+
     public static boolean completeness() {
         for (String key : gates.keySet()) {
             Gate g = gates.get(key);
@@ -547,6 +659,66 @@ public class LogicCircuit {
         return true;
     }
 
+    static CompiledCircuit compile() {
+        /** Compiles the parsed and complete circuit into its flat form, a CompiledCircuit.
+         * Gate ids follow the iteration order of the gates map, so the compiled simulation seeds
+         * the NOT, NAND and NOR gates in the same order the object simulation does.  Wire ids follow the wires list.
+         * @see #completeness()
+         */
+        IdentityHashMap<Gate, Integer> gateIds = new IdentityHashMap<>();
+        IdentityHashMap<Wire, Integer> wireIds = new IdentityHashMap<>();
+        Gate[] gateList = new Gate[gates.size()];
+        int faninCount = 0;
+        int fanoutCount = 0;
+        for (Gate g : gates.values()) {
+            gateIds.put(g, gateIds.size());
+            gateList[gateIds.size() - 1] = g;
+            faninCount += g.getInputList().length;
+        }
+        for (Wire w : wires) {
+            wireIds.put(w, wireIds.size());
+        }
+        for (Gate g : gateList) {
+            for (Wire w : g.getOutWires()) {
+                if (wireIds.containsKey(w)) {
+                    fanoutCount++;
+                }
+            }
+        }
+
+        CompiledCircuit c = CompiledCircuit.allocate(gateList.length, wires.size(), faninCount, fanoutCount);
+        int fanin = 0;
+        int fanout = 0;
+        for (int g = 0; g < gateList.length; g++) {
+            Gate gate = gateList[g];
+            c.gateName[g] = gate.getGateName();
+            c.gateType[g] = CompiledCircuit.typeCode(gate.getGateType());
+            c.gateDelay[g] = CompiledCircuit.toTicks(gate.getDelay());
+            c.faninStart[g] = fanin;
+            for (Wire w : gate.getInputList()) {
+                c.faninWire[fanin++] = wireIds.get(w);
+            }
+            c.fanoutStart[g] = fanout;
+            for (Wire w : gate.getOutWires()) {
+                Integer id = wireIds.get(w);
+                if (id != null) {  //wires that failed their checks were never added to the wires list
+                    c.fanoutWire[fanout++] = id;
+                }
+            }
+        }
+        c.faninStart[gateList.length] = fanin;
+        c.fanoutStart[gateList.length] = fanout;
+
+        for (int w = 0; w < wires.size(); w++) {
+            Wire wire = wires.get(w);
+            c.wireSource[w] = gateIds.get(gates.get(wire.sourceGate));
+            c.wireDest[w] = gateIds.get(wire.driven);
+            c.wireInput[w] = wire.input;
+            c.wireDelay[w] = CompiledCircuit.toTicks(wire.delay);
+        }
+        return c;
+    }
+
 
 static class Simulation{
     /**
@@ -565,51 +737,552 @@ static class Simulation{
         run(eventQueue);  //Runs the simulation if the event queue isn't empty
     }
 
+    static class EventPool implements EventSink {
+        /**
+         * EventPool adds the events gates and wires schedule to the event queue,
+         * reusing the events the simulation has finished with instead of allocating new ones
+         */
+        private final PriorityQueue<Event> eventQueue;
+        private final ArrayDeque<GateEvent> freeGateEvents = new ArrayDeque<>();
+        private final ArrayDeque<WireEvent> freeWireEvents = new ArrayDeque<>();
+
+        EventPool(PriorityQueue<Event> eventQueue) {
+            this.eventQueue = eventQueue;
+        }
+
+        @Override
+        public void scheduleGate(Gate g, float simTime) {
+            GateEvent e = freeGateEvents.poll();
+            if (e == null) {
+                e = new GateEvent(g, simTime);
+            } else {
+                e.reset(g, simTime);
+            }
+            eventQueue.add(e);
+        }
+
+        @Override
+        public void scheduleWire(Wire w, float simTime) {
+            WireEvent e = freeWireEvents.poll();
+            if (e == null) {
+                e = new WireEvent(w, simTime);
+            } else {
+                e.reset(w, simTime);
+            }
+            eventQueue.add(e);
+        }
+
+        void release(Event e) {
+            /** Returns an event that has been run to the pool */
+            if (e instanceof GateEvent) {
+                freeGateEvents.push((GateEvent) e);
+            } else {
+                freeWireEvents.push((WireEvent) e);
+            }
+        }
+    }
+
+    static void resetValues() {
+        /** Puts every gate and wire back to false, so the circuit can be simulated again */
+        for (Gate g : gates.values()) {
+            g.gateValue = false;
+            g.ones = 0;
+        }
+        for (Wire w : wires) {
+            w.wireValue = false;
+        }
+    }
+
     public static void initSimulation(PriorityQueue<Event> eventQueue){
-         /**  Initialize all values false in order switch not to true
+         /**  Initialize all values false in order switch not, nand and nor to true
          */
         for (String key : gates.keySet()) {
             Gate g = gates.get(key);
-            if (g.getGateType().equals("not")) {
+            if (CompiledCircuit.startsHigh(CompiledCircuit.typeCode(g.getGateType()))) {
                 Event e = new GateEvent(g, 0);
                 eventQueue.add(e);
             }
         }
     }
     public static void run(PriorityQueue<Event> eventQueue){
+        EventPool pool = new EventPool(eventQueue);
         while (!eventQueue.isEmpty()) {
             Event e = eventQueue.poll();
-
-            ArrayList<Event> list = e.runEvent(e.getEventDelay(), gates);
-                if (list != null) {
-                    for (Event newEvent : list)
-                        eventQueue.add(newEvent);
-                }
+            e.runEvent(e.getEventDelay(), pool);
+            pool.release(e);
         }
     }
 }
 
+    private static long parseTime(String arg, String what) {
+        /** A time given on the command line, in ticks */
+        try {
+            long ticks = Math.round(Double.parseDouble(arg) * CompiledCircuit.TICKS_PER_UNIT);
+            if (ticks >= 0) {
+                return ticks;
+            }
+        } catch (NumberFormatException e) {
+            //reported below
+        }
+        Errors.fatal(arg + ", " + what + " expected");
+        return 0;
+    }
+
+    private static void runCompact(String fileName, String scheduler, String traceSpec) {
+        /** Runs a binary netlist straight from its mapped file, without loading it as objects or arrays.
+         * The circuit is too large to be worth writing out, so only its size is
+         * @see CompactSimulation
+         */
+        try {
+            if (!BinaryNetlist.isBinary(Paths.get(fileName))) {
+                Errors.fatal("-compact runs a binary netlist, write one with -compile first");
+            }
+            CompactCircuit circuit = CompactCircuit.map(Paths.get(fileName));
+            System.out.println("Logic Circuit: " + circuit.gateCount + " gates and " + circuit.wireCount + " wires, off the heap");
+            System.out.println("\nSimulation: ");
+            TraceSink trace = TraceSink.create(traceSpec);
+            new CompactSimulation(circuit, EventScheduler.create(scheduler), trace).runSimulation();
+            trace.close();
+        } catch (NoSuchFileException e) {
+            Errors.fatal("The file is not found!");
+        } catch (IOException e) {
+            Errors.fatal("Cannot read the netlist or write the trace: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            Errors.fatal(e.getMessage());
+        }
+    }
+
     public static void main(String[] args) {
 
         Scanner sc;
-        if (args.length < 1) {
+        String fileName = null;
+        boolean compiled = false;  //Run the index based simulation instead of the object one
+        String scheduler = "wheel";
+        String traceSpec = "text";
+        int threads = 1;
+        Long patterns = null;  //seed of the random starting values of a bit parallel run
+        int lane = 0;          //lane of a bit parallel run that is traced
+        Integer cycles = null; //most cycles of a levelized run
+        boolean mapped = false;  //Parse with MappedNetlistParser
+        boolean metrics = false; //Instrument the compiled simulation and summarize it at the end
+        boolean inertial = false;  //Inertial instead of transport delays
+        String stimulusFile = null;  //Timed changes of the input gates
+        String checkpoint = null;    //time:file of a snapshot to save
+        String restoreFile = null;   //Snapshot to resume from
+        String compileFile = null;   //Binary netlist to write instead of simulating
+        String batchFile = null;     //Jobs to run at once instead of one netlist
+        boolean timing = false;      //Static timing analysis instead of simulating
+        long requiredTime = -1;      //of the endpoints, -1 for the critical path delay
+        int pathCount = 10;          //critical paths reported by the timing analysis
+        boolean optimize = false;    //Remove constant and dead gates before simulating
+        List<String> keep = null;    //gates whose trace the optimization keeps, null for all of them
+        boolean compact = false;     //Run a binary netlist from its mapped file, off the heap
+        boolean faults = false;      //Stuck-at fault coverage instead of simulating
+        List<String> observe = null; //gates that detect a fault, null for the gates driving no wire
+        RunLimits limits = new RunLimits();  //Bounds of a run that may never settle
+        int workers = Runtime.getRuntime().availableProcessors();  //Threads running the jobs of a batch or the timing analysis
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-compiled")) {
+                compiled = true;
+            } else if (arg.equals("-scheduler") && i + 1 < args.length) {
+                compiled = true;
+                scheduler = args[++i];
+            } else if (arg.equals("-threads") && i + 1 < args.length) {
+                compiled = true;
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    Errors.fatal(args[i] + ", number of threads expected");
+                }
+            } else if (arg.equals("-patterns") && i + 1 < args.length) {
+                compiled = true;
+                try {
+                    patterns = Long.parseLong(args[++i]);
+                } catch (NumberFormatException e) {
+                    Errors.fatal(args[i] + ", random seed expected");
+                }
+            } else if (arg.equals("-lane") && i + 1 < args.length) {
+                compiled = true;
+                try {
+                    lane = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    Errors.fatal(args[i] + ", lane number expected");
+                }
+                if (patterns == null) {
+                    patterns = 0L;
+                }
+            } else if (arg.equals("-levelized")) {
+                compiled = true;
+                if (cycles == null) {
+                    cycles = 100;
+                }
+            } else if (arg.equals("-cycles") && i + 1 < args.length) {
+                compiled = true;
+                try {
+                    cycles = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    Errors.fatal(args[i] + ", number of cycles expected");
+                }
+            } else if (arg.equals("-mmap")) {
+                compiled = true;
+                mapped = true;
+            } else if (arg.equals("-compact")) {
+                compact = true;
+            } else if (arg.equals("-faults")) {
+                faults = true;
+            } else if (arg.equals("-observe") && i + 1 < args.length) {
+                faults = true;
+                observe = Arrays.asList(args[++i].split(","));
+            } else if (arg.equals("-inertial")) {
+                compiled = true;
+                inertial = true;
+            } else if (arg.equals("-stimulus") && i + 1 < args.length) {
+                compiled = true;
+                stimulusFile = args[++i];
+            } else if (arg.equals("-checkpoint") && i + 1 < args.length) {
+                compiled = true;
+                checkpoint = args[++i];
+            } else if (arg.equals("-restore") && i + 1 < args.length) {
+                compiled = true;
+                restoreFile = args[++i];
+            } else if (arg.equals("-compile") && i + 1 < args.length) {
+                compileFile = args[++i];
+            } else if (arg.equals("-until") && i + 1 < args.length) {
+                compiled = true;
+                limits.endTick = parseTime(args[++i], "time");
+            } else if (arg.equals("-events") && i + 1 < args.length) {
+                compiled = true;
+                try {
+                    limits.maxEvents = Long.parseLong(args[++i]);
+                } catch (NumberFormatException e) {
+                    Errors.fatal(args[i] + ", number of events expected");
+                }
+            } else if (arg.equals("-wall") && i + 1 < args.length) {
+                compiled = true;
+                try {
+                    limits.wallNanos = Math.round(Double.parseDouble(args[++i]) * 1e9);
+                } catch (NumberFormatException e) {
+                    Errors.fatal(args[i] + ", seconds expected");
+                }
+            } else if (arg.equals("-steady") && i + 1 < args.length) {
+                compiled = true;
+                limits.interval = parseTime(args[++i], "time");
+                if (limits.interval <= 0) {
+                    Errors.fatal(args[i] + ", time between state checks expected");
+                }
+            } else if (arg.equals("-optimize")) {
+                compiled = true;
+                optimize = true;
+            } else if (arg.equals("-keep") && i + 1 < args.length) {
+                compiled = true;
+                optimize = true;
+                keep = Arrays.asList(args[++i].split(","));
+            } else if (arg.equals("-sta")) {
+                timing = true;
+            } else if (arg.equals("-required") && i + 1 < args.length) {
+                timing = true;
+                requiredTime = parseTime(args[++i], "time");
+            } else if (arg.equals("-paths") && i + 1 < args.length) {
+                timing = true;
+                try {
+                    pathCount = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    pathCount = -1;
+                }
+                if (pathCount < 0) {
+                    Errors.fatal(args[i] + ", number of paths expected");
+                }
+            } else if (arg.equals("-batch") && i + 1 < args.length) {
+                batchFile = args[++i];
+            } else if (arg.equals("-workers") && i + 1 < args.length) {
+                try {
+                    workers = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    Errors.fatal(args[i] + ", number of workers expected");
+                }
+                if (workers < 1) {
+                    Errors.fatal(args[i] + ", number of workers expected");
+                }
+            } else if (arg.equals("-metrics")) {
+                compiled = true;
+                metrics = true;
+            } else if (arg.equals("-trace") && i + 1 < args.length) {
+                compiled = true;
+                traceSpec = args[++i];
+            } else if (arg.startsWith("-")) {
+                Errors.fatal(arg + " is not a valid option");
+            } else if (fileName == null) {
+                fileName = arg;
+            } else {
+                Errors.fatal("Extra command-line arguments");
+            }
+        }
+        if (batchFile != null) {
+            if (fileName != null) {
+                Errors.fatal("-batch takes its netlists from the job file");
+            }
+            BatchRunner.runBatch(batchFile, workers);
+            return;
+        }
+        if (fileName == null) {
             Errors.fatal("Missing filename argument");
         }
-        if (args.length > 1) {
-            Errors.fatal("Extra command-line arguments");
+        if (!scheduler.equals("wheel") && !scheduler.equals("heap")) {
+            Errors.fatal(scheduler + " is not a valid scheduler (wheel, heap)");
+        }
+        if (metrics && (threads > 1 || patterns != null || cycles != null)) {
+            Errors.fatal("-metrics only instruments the sequential event driven simulation");
+        }
+        if (inertial && (threads > 1 || patterns != null || cycles != null)) {
+            Errors.fatal("-inertial only applies to the sequential event driven simulation");
+        }
+        if (stimulusFile != null && (threads > 1 || cycles != null)) {
+            Errors.fatal("-stimulus only drives the sequential and bit parallel event driven simulations");
+        }
+        if (limits.bounded() && cycles != null) {
+            Errors.fatal("-until, -events, -wall and -steady only bound the event driven simulations");
         }
+        if (limits.interval > 0 && threads > 1) {
+            Errors.fatal("-steady needs the whole state of a sequential or bit parallel simulation, not -threads");
+        }
+        if (faults && (threads > 1 || patterns != null || cycles != null || metrics || inertial
+                || checkpoint != null || restoreFile != null || optimize || timing || compact || compileFile != null)) {
+            Errors.fatal("-faults runs its own bit parallel simulation, only -stimulus, -until, -events, -wall, -steady,"
+                    + " -workers and -scheduler apply");
+        }
+        if (compact && (threads > 1 || patterns != null || cycles != null || metrics || inertial || stimulusFile != null
+                || checkpoint != null || restoreFile != null || limits.bounded() || optimize || timing || compileFile != null)) {
+            Errors.fatal("-compact only runs the plain transport delay simulation");
+        }
+        if ((checkpoint != null || restoreFile != null) && (threads > 1 || patterns != null || cycles != null)) {
+            Errors.fatal("-checkpoint and -restore only save the sequential event driven simulation");
+        }
+        long checkpointTick = 0;
+        if (checkpoint != null) {
+            int colon = checkpoint.indexOf(':');
+            try {
+                checkpointTick = Math.round(Double.parseDouble(checkpoint.substring(0, Math.max(colon, 0))) * CompiledCircuit.TICKS_PER_UNIT);
+            } catch (NumberFormatException e) {
+                colon = -1;
+            }
+            if (colon < 0 || colon == checkpoint.length() - 1) {
+                Errors.fatal(checkpoint + ", time:file expected");
+            }
+        }
+        if (compact) {
+            runCompact(fileName, scheduler, traceSpec);
+            return;
+        }
+        NetlistBuilder netlist = null;
+        CompiledCircuit loaded = null;  //a binary netlist, already checked when it was compiled
         try {
-            sc = new Scanner(new File(args[0]));
-            LogicCircuit.initCircuit(sc);
-        } catch (FileNotFoundException e) {
+            if (BinaryNetlist.isBinary(Paths.get(fileName))) {
+                loaded = BinaryNetlist.load(Paths.get(fileName));
+                compiled = true;
+            } else if (mapped) {
+                netlist = MappedNetlistParser.parse(Paths.get(fileName));
+            } else {
+                sc = new Scanner(new File(fileName));
+                LogicCircuit.initCircuit(sc);
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
             Errors.fatal("The file is not found!");
+        } catch (IOException e) {
+            Errors.fatal("Cannot read the file: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            Errors.fatal(e.getMessage());
         }
 
-        if(completeness()) { //Checks to see if the LogicCircuit is complete
+        if(loaded != null || (mapped ? netlist.completeness() : completeness())) { //Checks to see if the LogicCircuit is complete
+            if (compileFile != null) {
+                CompiledCircuit circuit = loaded != null ? loaded : mapped ? netlist.build() : compile();
+                try {
+                    BinaryNetlist.write(circuit, Paths.get(compileFile));
+                } catch (IOException e) {
+                    Errors.fatal("Cannot write the binary netlist: " + e.getMessage());
+                }
+                System.out.println("Compiled " + circuit.gateCount + " gates and " + circuit.wireCount + " wires to " + compileFile);
+                return;
+            }
+            if (faults) {
+                CompiledCircuit circuit = loaded != null ? loaded : mapped ? netlist.build() : compile();
+                if (!limits.bounded() && new Levelizer(circuit).feedbackWires > 0) {
+                    //a loop may never settle, and then a batch with an undetectable fault would never end
+                    limits.interval = FaultSimulator.steadyInterval(circuit);
+                    System.out.println("The circuit has loops, each batch stops once it repeats itself (-steady "
+                            + CompiledCircuit.toTime(limits.interval) + ")\n");
+                }
+                try {
+                    FaultSimulator fsim = new FaultSimulator(circuit,
+                            observe == null ? FaultSimulator.outputs(circuit) : FaultSimulator.observed(circuit, observe));
+                    fsim.stimulus = stimulusFile == null ? null : Paths.get(stimulusFile);
+                    fsim.run(scheduler, limits, workers);
+                    fsim.writeReport(System.out, 20);
+                } catch (IllegalArgumentException e) {
+                    Errors.fatal(e.getMessage());
+                } catch (UncheckedIOException e) {
+                    Errors.fatal(e.getCause() instanceof NoSuchFileException ? "The stimulus file is not found!"
+                            : "Cannot read the stimulus: " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Errors.fatal("Interrupted");
+                }
+                return;
+            }
+            if (timing) {
+                CompiledCircuit circuit = loaded != null ? loaded : mapped ? netlist.build() : compile();
+                long start = System.nanoTime();
+                StaticTiming sta = new StaticTiming(circuit);
+                ForkJoinPool pool = new ForkJoinPool(workers);
+                try {
+                    sta.analyze(requiredTime, pool);
+                } finally {
+                    pool.shutdown();
+                }
+                System.out.printf("Static timing: %d gates in %d levels, %d feedback wires cut, %d threads, %.3f s%n",
+                        circuit.gateCount, sta.levelCount(), sta.levels.feedbackWires, workers, (System.nanoTime() - start) / 1e9);
+                sta.writeReport(System.out, pathCount);
+                return;
+            }
             System.out.println("Logic Circuit: ");
-            writeCircuit();
+            CompiledCircuit circuit = null;
+            HierarchicalCircuit hierarchy = null;  //instances run as flyweights unless an option needs flat tables
+            boolean flyweight = cycles == null && patterns == null && threads == 1 && !metrics && !inertial
+                    && stimulusFile == null && checkpoint == null && restoreFile == null && !limits.bounded() && !optimize;
+            if (loaded != null) {
+                loaded.writeCircuit(System.out);
+                circuit = loaded;
+            } else if (mapped && netlist.hierarchical()) {
+                hierarchy = netlist.hierarchy();
+                hierarchy.writeCircuit(System.out);
+                circuit = flyweight ? null : hierarchy.flatten();
+            } else if (mapped) {
+                netlist.writeCircuit(System.out);
+                circuit = netlist.build();
+            } else {
+                writeCircuit();
+                circuit = compiled ? compile() : null;
+            }
+            if (optimize) {
+                CircuitOptimizer optimizer = new CircuitOptimizer(circuit);
+                try {
+                    circuit = optimizer.optimize(keep == null ? null : CircuitOptimizer.gateIds(circuit, keep));
+                } catch (IllegalArgumentException e) {
+                    Errors.fatal(e.getMessage());
+                }
+                System.out.println();
+                optimizer.writeSummary(System.out, circuit);
+            }
+            Levelizer levels = null;
+            if (cycles != null) {
+                levels = new Levelizer(circuit);
+                writeLoops(circuit, levels);
+            }
             System.out.println("\nSimulation: ");
-            Simulation.runSimulation();  //Runs methods that run a simulation of a LogicCircuit
+            if (compiled) {
+                try {
+                    TraceSink trace = TraceSink.create(traceSpec);
+                    if (hierarchy != null && circuit == null) {
+                        new HierarchicalSimulation(hierarchy, EventScheduler.create(scheduler), trace).runSimulation();
+                    } else if (levels != null) {
+                        LevelizedSimulation sim = new LevelizedSimulation(circuit, levels, trace);
+                        boolean settled = sim.run(cycles);
+                        System.out.println((settled ? "Settled after " : "Not settled after ") + sim.cycles + " cycles");
+                    } else if (patterns != null) {
+                        BitParallelSimulation sim = new BitParallelSimulation(circuit, EventScheduler.create(scheduler));
+                        sim.randomInitial(patterns);
+                        sim.traceLane(lane, trace);
+                        if (limits.bounded()) {
+                            sim.setLimits(limits);
+                        }
+                        StimulusReader stimulus = null;
+                        if (stimulusFile != null) {
+                            try {
+                                stimulus = new StimulusReader(Paths.get(stimulusFile), circuit, true);
+                            } catch (FileNotFoundException | NoSuchFileException e) {
+                                Errors.fatal("The stimulus file is not found!");
+                            }
+                            sim.setStimulus(stimulus);
+                        }
+                        try {
+                            sim.runSimulation();
+                        } catch (UncheckedIOException e) {
+                            Errors.fatal("Cannot read the stimulus: " + e.getCause().getMessage());
+                        } finally {
+                            if (stimulus != null) {
+                                stimulus.close();
+                            }
+                        }
+                        limits.writeOutcome(System.out, sim.eventCount);
+                    } else if (threads > 1) {
+                        ParallelSimulation sim = new ParallelSimulation(circuit, threads, trace);
+                        if (limits.bounded()) {
+                            sim.setLimits(limits);
+                        }
+                        sim.runSimulation();
+                        limits.writeOutcome(System.out, sim.eventCount());
+                    } else {
+                        CompiledSimulation sim = new CompiledSimulation(circuit, EventScheduler.create(scheduler), trace);
+                        SimulationMetrics summary = metrics ? new SimulationMetrics(circuit) : null;
+                        sim.setMetrics(summary);
+                        if (inertial) {
+                            sim.useInertialDelay();
+                        }
+                        if (limits.bounded()) {
+                            sim.setLimits(limits);
+                        }
+                        long stimulusLine = stimulusFile == null ? 0 : 1;
+                        if (restoreFile != null) {
+                            try {
+                                stimulusLine = SimulationSnapshot.restore(sim, Paths.get(restoreFile));
+                            } catch (NoSuchFileException e) {
+                                Errors.fatal("The snapshot file is not found!");
+                            }
+                            if (stimulusLine > 0 && stimulusFile == null) {
+                                Errors.fatal(restoreFile + " needs the -stimulus of the run it was saved from");
+                            }
+                        }
+                        StimulusReader stimulus = null;
+                        if (stimulusLine > 0) {
+                            try {
+                                stimulus = new StimulusReader(Paths.get(stimulusFile), circuit, stimulusLine);
+                            } catch (FileNotFoundException | NoSuchFileException e) {
+                                Errors.fatal("The stimulus file is not found!");
+                            }
+                            sim.setStimulus(stimulus);
+                        }
+                        try {
+                            if (restoreFile != null) {
+                                sim.resumeSimulation();
+                            } else if (checkpoint != null) {
+                                sim.runSimulation(checkpointTick, Paths.get(checkpoint.substring(checkpoint.indexOf(':') + 1)));
+                            } else {
+                                sim.runSimulation();
+                            }
+                        } catch (UncheckedIOException e) {
+                            Errors.fatal("Cannot read the stimulus: " + e.getCause().getMessage());
+                        } finally {
+                            if (stimulus != null) {
+                                stimulus.close();
+                            }
+                        }
+                        limits.writeOutcome(System.out, sim.eventCount);
+                        if (summary != null) {
+                            trace.close();
+                            System.out.println("\nMetrics: ");
+                            summary.writeSummary(System.out);
+                            return;
+                        }
+                    }
+                    trace.close();
+                } catch (IOException e) {
+                    Errors.fatal("Cannot write the trace: " + e.getMessage());
+                } catch (IllegalArgumentException e) {
+                    Errors.fatal(e.getMessage());
+                }
+            } else {
+                Simulation.runSimulation();  //Runs methods that run a simulation of a LogicCircuit
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,462 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Scanner;
+
+/**
+ * MappedNetlistParser reads a netlist file through a memory mapped FileChannel with a hand written tokenizer,
+ * for netlists far too big for the Scanner based LogicCircuit.initCircuit.
+ * Tokens are positions in the mapped buffer, so a line is parsed without making a String or a Scanner;
+ * only gate names are copied, once per gate, and messages are only built when there is something to report.
+ *
+ * It reports the same errors as initCircuit, Gate.scanGate and Wire.scanWire, with one difference:
+ * a wire may name a gate defined further down the file, since wires are resolved in a second pass by the
+ * NetlistBuilder, so the errors about wire ends are reported after all of the syntax errors.
+ * The file is mapped a window of up to 1GB at a time, cut at a line end, so a statement may not span windows.
+ *
+ * It also reads modules, which initCircuit does not: the lines from module name to end define a module, whose
+ * inputs left unwired are its ports, and instance module name adds an instance whose gates are named name.gate.
+ * A module is parsed once however many instances it has, an instance inside a module is expanded into it.
+ * @see HierarchicalCircuit
+ * @see NetlistBuilder
+ * @see LogicCircuit#initCircuit(Scanner)
+ */
+class MappedNetlistParser {
+    private static final long WINDOW = 1L << 30;
+
+    private final NetlistBuilder top;
+    private NetlistBuilder builder;  //top, or the module being defined
+    private String module;           //name of the module being defined, null at the top level
+    private ByteBuffer buf;
+    private int pos;          //next byte to read
+    private int end;          //end of the lines in this window
+    private int tokenStart;   //bounds of the last token read
+    private int tokenEnd;
+    private float number;     //value of the last token read as a float
+    private int integer;      //value of the last token read as an int
+
+    private MappedNetlistParser(NetlistBuilder builder) {
+        this.top = builder;
+        this.builder = builder;
+    }
+
+    static NetlistBuilder parse(Path file) throws IOException {
+        /** Parses the whole file, then resolves the wires
+         */
+        NetlistBuilder builder = new NetlistBuilder();
+        MappedNetlistParser parser = new MappedNetlistParser(builder);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long offset = 0;
+            while (offset < size) {
+                long length = Math.min(WINDOW, size - offset);
+                parser.buf = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                parser.pos = 0;
+                parser.end = (int) length;
+                if (offset + length < size) {
+                    while (parser.end > 0 && parser.buf.get(parser.end - 1) != '\n') {
+                        parser.end--;
+                    }
+                    if (parser.end == 0) {
+                        throw new IOException("a line of " + file + " is longer than " + WINDOW + " bytes");
+                    }
+                }
+                parser.parseLines();
+                offset += parser.end;
+            }
+        }
+        if (parser.module != null) {
+            Errors.warn("module " + parser.module + " has no end");
+            parser.endModule();
+        }
+        builder.resolveWires();
+        return builder;
+    }
+
+    private void parseLines() {
+        /** The loop of LogicCircuit.initCircuit: commands are tokens, their arguments the rest of the line
+         */
+        while (nextToken(end)) {
+            if (tokenIs("gate")) {
+                if (!nextToken(end)) {
+                    return;
+                }
+                byte type = gateType();
+                String typeName = type < 0 ? tokenString() : null;
+                int lineEnd = lineEnd();
+                if (type < 0) {
+                    Errors.warn(typeName + ", no such type of gate");
+                } else {
+                    parseGate(type, lineEnd);
+                }
+                pos = nextLine(lineEnd);
+            } else if (tokenIs("wire")) {
+                int lineEnd = lineEnd();
+                parseWire(lineEnd);
+                pos = nextLine(lineEnd);
+            } else if (tokenIs("module")) {
+                int lineEnd = lineEnd();
+                parseModule(lineEnd);
+                pos = nextLine(lineEnd);
+            } else if (tokenIs("end")) {
+                int lineEnd = lineEnd();
+                if (module == null) {
+                    Errors.warn("end, no module to end");
+                } else if (nextToken(lineEnd)) {
+                    Errors.warn("end " + module + " --has non-empty line end");
+                } else {
+                    endModule();
+                }
+                pos = nextLine(lineEnd);
+            } else if (tokenIs("instance")) {
+                int lineEnd = lineEnd();
+                parseInstance(lineEnd);
+                pos = nextLine(lineEnd);
+            } else if (tokenContainsComment()) {  //This allows for line comments in the input language
+                pos = nextLine(lineEnd());
+            } else {
+                Errors.warn(tokenString() + " is not a valid operation (Gate, Wire, Module or Instance)");
+            }
+        }
+    }
+
+    private void parseGate(byte type, int lineEnd) {
+        /** The checks of Gate.scanGate
+         * @see Gate#scanGate(String, String)
+         */
+        String typeName = NetlistBuilder.TYPE_NAMES[type];
+        if (!nextToken(lineEnd)) {
+            Errors.warn("Gate: Not enough arguments given");
+            return;
+        }
+        int nameStart = tokenStart;
+        int nameEnd = tokenEnd;
+        if (!nextToken(lineEnd)) {
+            Errors.warn("Gate: Not enough arguments given");
+            return;
+        }
+        if (!parseFloat()) {
+            Errors.warn(tokenString() + ", number expected");
+            return;
+        }
+        float delay = number;
+        int inputs = NetlistBuilder.defaultInputs(type);
+        if (CompiledCircuit.isWide(type) && nextToken(lineEnd)) {
+            if (!parseInt()) {
+                Errors.warn(tokenString() + ", number of inputs expected");
+                return;
+            }
+            inputs = integer;
+            if (inputs < 1) {
+                Errors.warn(inputs + ", a gate needs at least one input");
+                return;
+            }
+        }
+        if (nextToken(lineEnd)) {
+            Errors.warn("gate " + typeName + " " + string(nameStart, nameEnd) + " --has non-empty line end");
+            return;
+        }
+        if (!builder.addGate(buf, nameStart, nameEnd - nameStart, type, delay, inputs)) {
+            Errors.warn("Gate '" + string(nameStart, nameEnd) + "' has already been defined");
+        }
+    }
+
+    private void parseModule(int lineEnd) {
+        /** module name starts the definition of a module, its gates, wires and instances up to end
+         */
+        if (!nextToken(lineEnd)) {
+            Errors.warn("Module: Not enough arguments given");
+            return;
+        }
+        String name = tokenString();
+        if (nextToken(lineEnd)) {
+            Errors.warn("module " + name + " --has non-empty line end");
+        } else if (module != null) {
+            Errors.warn("module " + name + ", modules cannot be defined inside module " + module);
+        } else {
+            module = name;
+            builder = new NetlistBuilder();
+        }
+    }
+
+    private void endModule() {
+        /** Checks the wires of the module and keeps it as a template, its open inputs are its ports */
+        builder.resolveWires();
+        if (builder.gateCount() == 0) {
+            Errors.warn("module " + module + " has no gates");
+        } else if (!top.defineModule(module, builder.build())) {
+            Errors.warn("Module '" + module + "' has already been defined");
+        }
+        builder = top;
+        module = null;
+    }
+
+    private void parseInstance(int lineEnd) {
+        /** instance module name: at the top level an instance only records its module, inside a module
+         * definition the module it names is expanded into the one being defined
+         */
+        if (!nextToken(lineEnd)) {
+            Errors.warn("Instance: Not enough arguments given");
+            return;
+        }
+        String moduleName = tokenString();
+        if (!nextToken(lineEnd)) {
+            Errors.warn("Instance: Not enough arguments given");
+            return;
+        }
+        String name = tokenString();
+        if (nextToken(lineEnd)) {
+            Errors.warn("instance " + moduleName + " " + name + " --has non-empty line end");
+            return;
+        }
+        ModuleTemplate m = top.module(moduleName);
+        if (m == null) {
+            Errors.warn(moduleName + ", no such module");
+        } else if (module != null) {
+            builder.expandInstance(m, name);
+        } else if (!top.addInstance(moduleName, name)) {
+            Errors.warn("Instance '" + name + "' has already been defined");
+        }
+    }
+
+    private void parseWire(int lineEnd) {
+        /** The checks of Wire.scanWire that do not need the gates, the rest are made by NetlistBuilder.resolveWires
+         * @see Wire#scanWire(java.util.HashMap, String)
+         */
+        if (!nextToken(lineEnd)) {
+            Errors.warn("Wire -- wrong format");
+            return;
+        }
+        int source = builder.gateRef(buf, tokenStart, tokenEnd - tokenStart);
+        if (!nextToken(lineEnd)) {
+            Errors.warn("Wire -- wrong format");
+            return;
+        }
+        int dest = builder.gateRef(buf, tokenStart, tokenEnd - tokenStart);
+        int input = 0;
+        boolean hasDelay = false;
+        if (nextToken(lineEnd)) {
+            if (tokenIs("in1")) {
+                input = 0;
+            } else if (tokenIs("in2")) {
+                input = 1;
+            } else if (tokenIs("in") && dest < 0) {
+                input = NetlistBuilder.IN_NOT_RESOLVED;  //a gate defined further down, checked when the wire is resolved
+            } else if (tokenIs("in") && builder.type(dest) == CompiledCircuit.NOT) {
+                input = 0;
+            } else if (tokenInput() >= 0) {
+                input = tokenInput();
+            } else {
+                Errors.warn("wire " + builder.refName(source) + " " + builder.refName(dest) + " Input String Expected (in1, in2, ..., in)");
+            }
+            hasDelay = nextToken(lineEnd);
+        }
+        if (!hasDelay || !parseFloat()) {
+            Errors.warn("wire " + builder.refName(source) + " " + builder.refName(dest) + ", --number for delay expected");
+            return;
+        }
+        float delay = number;
+        if (nextToken(lineEnd)) {
+            Errors.warn("wire " + builder.refName(source) + " " + builder.refName(dest) + " "
+                    + (input == NetlistBuilder.IN_NOT_RESOLVED ? 0 : input) + " " + delay + " --has non-empty line end");
+            return;
+        }
+        builder.addWire(source, dest, input, delay);
+    }
+
+    private static boolean isSpace(int b) {
+        /** The whitespace Scanner splits tokens on, for the ASCII range */
+        return b == ' ' || (b >= '\t' && b <= '\r') || (b >= 0x1c && b <= 0x1f);
+    }
+
+    private boolean nextToken(int limit) {
+        /** Reads the next token before limit into tokenStart and tokenEnd, returns false if there is none
+         */
+        int p = pos;
+        while (p < limit && isSpace(buf.get(p))) {
+            p++;
+        }
+        if (p == limit) {
+            pos = p;
+            tokenStart = tokenEnd = -1;
+            return false;
+        }
+        tokenStart = p;
+        while (p < limit && !isSpace(buf.get(p))) {
+            p++;
+        }
+        tokenEnd = p;
+        pos = p;
+        return true;
+    }
+
+    private int lineEnd() {
+        int p = pos;
+        while (p < end) {
+            byte b = buf.get(p);
+            if (b == '\n' || b == '\r') {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    private int nextLine(int lineEnd) {
+        /** Skips the line separator at lineEnd, \r\n counts as one as it does for Scanner.nextLine */
+        if (lineEnd < end && buf.get(lineEnd) == '\r') {
+            lineEnd++;
+        }
+        if (lineEnd < end && buf.get(lineEnd) == '\n') {
+            lineEnd++;
+        }
+        return lineEnd;
+    }
+
+    private boolean tokenIs(String s) {
+        /** Compares the token with a lower case keyword, ignoring case */
+        if (tokenEnd - tokenStart != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            int b = buf.get(tokenStart + i);
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int tokenInput() {
+        /** The input a token in1, in2, ... up to 9 digits names, counting from 0, or -1 for any other token */
+        int digits = tokenEnd - tokenStart - 2;
+        if (digits < 1 || digits > 9 || (buf.get(tokenStart) | 0x20) != 'i' || (buf.get(tokenStart + 1) | 0x20) != 'n'
+                || buf.get(tokenStart + 2) == '0') {
+            return -1;
+        }
+        int n = 0;
+        for (int p = tokenStart + 2; p < tokenEnd; p++) {
+            byte b = buf.get(p);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            n = n * 10 + (b - '0');
+        }
+        return n - 1;
+    }
+
+    private byte gateType() {
+        for (byte t = 0; t < NetlistBuilder.TYPE_NAMES.length; t++) {
+            if (tokenIs(NetlistBuilder.TYPE_NAMES[t])) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    private boolean tokenContainsComment() {
+        for (int p = tokenStart; p + 1 < tokenEnd; p++) {
+            if (buf.get(p) == '/' && buf.get(p + 1) == '/') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String tokenString() {
+        return string(tokenStart, tokenEnd);
+    }
+
+    private String string(int from, int to) {
+        byte[] b = new byte[to - from];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = buf.get(from + i);
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private boolean parseInt() {
+        /** Reads the token as an int into integer the way Scanner.nextInt would, returns false if it is not one.
+         * Plain numbers of up to 9 digits are converted directly, anything else goes to a Scanner
+         */
+        int p = tokenStart;
+        boolean negative = buf.get(p) == '-';
+        if (negative || buf.get(p) == '+') {
+            p++;
+        }
+        int n = 0;
+        int digits = 0;
+        for (; p < tokenEnd && buf.get(p) >= '0' && buf.get(p) <= '9'; p++) {
+            n = n * 10 + (buf.get(p) - '0');
+            digits++;
+        }
+        if (p == tokenEnd && digits > 0 && digits <= 9) {
+            integer = negative ? -n : n;
+            return true;
+        }
+        Scanner sc = new Scanner(tokenString());
+        if (!sc.hasNextInt()) {
+            return false;
+        }
+        integer = sc.nextInt();
+        return true;
+    }
+
+    private boolean parseFloat() {
+        /** Reads the token as a float into number the way Scanner.nextFloat would, returns false if it is not one.
+         * Plain decimals of up to 15 digits are converted directly: the digits and the power of ten are exact doubles,
+         * so their quotient is the correctly rounded double, and rounding that to a float only differs from rounding
+         * the decimal straight to a float when it lands exactly half way between two floats.
+         * Anything else, exponents, grouping or NaN and such, goes to a Scanner.
+         */
+        int p = tokenStart;
+        boolean negative = false;
+        if (buf.get(p) == '-' || buf.get(p) == '+') {
+            negative = buf.get(p) == '-';
+            p++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;  //digits after the point, -1 before it
+        for (; p < tokenEnd; p++) {
+            byte b = buf.get(p);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                break;
+            }
+        }
+        if (p == tokenEnd && digits > 0 && digits <= 15) {
+            double d = mantissa / POWERS_OF_TEN[Math.max(fraction, 0)];
+            if ((Double.doubleToRawLongBits(d) & 0x1fffffffL) != 0x10000000L) {
+                number = (float) (negative ? -d : d);
+                return true;
+            }
+        }
+        Scanner sc = new Scanner(tokenString());
+        if (!sc.hasNextFloat()) {
+            return false;
+        }
+        number = sc.nextFloat();
+        return true;
+    }
+}
@@ -0,0 +1,58 @@
+package com.rwedoff;
+
+import java.util.HashMap;
+
+class ModuleTemplate {
+    /** ModuleTemplate is the static part of a module, shared by all of its instances: its gates and internal
+     * wires as a CompiledCircuit whose open inputs, the ports the instances are wired to, have wire -1.
+     * The instances of other modules in it were expanded into it when it was defined.
+     */
+    final String name;
+    final CompiledCircuit circuit;
+    final int[] startsHigh;   //gates evaluated at time 0
+    final long[] ports;       //open inputs, gate << 32 | input
+    private HashMap<String, Integer> gateIds;
+
+    ModuleTemplate(String name, CompiledCircuit circuit) {
+        this.name = name;
+        this.circuit = circuit;
+        int high = 0;
+        int open = 0;
+        for (int g = 0; g < circuit.gateCount; g++) {
+            if (CompiledCircuit.startsHigh(circuit.gateType[g])) {
+                high++;
+            }
+        }
+        for (int f : circuit.faninWire) {
+            if (f < 0) {
+                open++;
+            }
+        }
+        startsHigh = new int[high];
+        ports = new long[open];
+        high = 0;
+        open = 0;
+        for (int g = 0; g < circuit.gateCount; g++) {
+            if (CompiledCircuit.startsHigh(circuit.gateType[g])) {
+                startsHigh[high++] = g;
+            }
+            for (int i = circuit.faninStart[g]; i < circuit.faninStart[g + 1]; i++) {
+                if (circuit.faninWire[i] < 0) {
+                    ports[open++] = (long) g << 32 | (i - circuit.faninStart[g]);
+                }
+            }
+        }
+    }
+
+    int gate(String gateName) {
+        /** The id of the named gate of the module, -1 if there is none */
+        if (gateIds == null) {
+            gateIds = new HashMap<>();
+            for (int g = 0; g < circuit.gateCount; g++) {
+                gateIds.put(circuit.gateName[g], g);
+            }
+        }
+        Integer g = gateIds.get(gateName);
+        return g == null ? -1 : g;
+    }
+}
@@ -0,0 +1,472 @@
+package com.rwedoff;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+class NetlistBuilder {
+    /** NetlistBuilder collects the gates and wires of a parsed netlist in growable primitive tables and builds
+     * a CompiledCircuit from them.  Gates are found by name through an open addressing hash table over the name bytes,
+     * so looking a name up does not make a String.  The table keeps each name's hash next to its gate id,
+     * so a probe only reads the name of a gate whose hash matches.  Gate ids follow the order the gates are defined in.
+     * A wire end names a gate by a reference: the gate id if the gate was already defined,
+     * otherwise -1 - the index of the name kept for resolveWires.
+     * @see MappedNetlistParser
+     */
+    static final String[] TYPE_NAMES = {"and", "or", "not", "input", "nand", "nor", "xor"};  //indexed by CompiledCircuit type code
+    static final int IN_NOT_RESOLVED = -1;  //a wire to input "in" of a gate defined after it
+
+    /** Gates */
+    private byte[] names = new byte[1 << 12];   //the bytes of every gate name, one after the other
+    private int namesUsed;
+    private int[] nameStart = new int[256];
+    private int[] nameLength = new int[256];
+    private byte[] gateType = new byte[256];
+    private float[] gateDelay = new float[256];
+    private int[] gateInputs = new int[256];
+    private int gateCount;
+    private long[] table = new long[1 << 10];   //name hash << 32 | gate id + 1, 0 for an empty slot
+    private int lastHash;                       //hash of the name find last looked for
+
+    /** Names of wire ends that were not defined yet when the wire was read */
+    private byte[] pendingNames = new byte[1 << 10];
+    private int pendingUsed;
+    private int[] pendingStart = new int[64];
+    private int[] pendingLength = new int[64];
+    private int pendingCount;
+
+    /** Wires as read, and the wires left after resolveWires, in the order of the file */
+    private int[] wireSource = new int[256];
+    private int[] wireDest = new int[256];
+    private int[] wireInput = new int[256];
+    private float[] wireDelay = new float[256];
+    private int wireCount;
+    private int[] inputStart;                  //inputs of gate g are from inputStart[g] in inputWire
+    private int[] inputWire;                   //wire id driving input i of gate g at inputStart[g] + i, -1 for none
+
+    /** Modules, kept by the top level builder, and the instances of modules at the top level.  The gates of the
+     * instances have the ids after the top level gates, see HierarchicalCircuit */
+    private final ArrayList<ModuleTemplate> modules = new ArrayList<>();
+    private final HashMap<String, Integer> moduleIds = new HashMap<>();
+    private String[] instanceName = new String[16];
+    private int[] instanceModule = new int[16];
+    private int instanceCount;
+    private final HashMap<String, Integer> instanceIds = new HashMap<>();
+    private int[] instanceBase;                //id of the first gate of each instance, set by resolveWires
+    private HashSet<Long> portsTaken;          //(gate << 32 | input) of the instance inputs wired at the top level
+
+    int gateCount() {  return gateCount;  }
+    int wireCount() {  return wireCount;  }
+    byte type(int g) {  return gateType[g];  }
+    boolean hierarchical() {  return instanceCount > 0;  }
+
+    boolean defineModule(String name, CompiledCircuit circuit) {
+        /** Adds a module for instances to use, returns false if a module of that name is already defined */
+        if (moduleIds.containsKey(name)) {
+            return false;
+        }
+        moduleIds.put(name, modules.size());
+        modules.add(new ModuleTemplate(name, circuit));
+        return true;
+    }
+
+    ModuleTemplate module(String name) {
+        Integer m = moduleIds.get(name);
+        return m == null ? null : modules.get(m);
+    }
+
+    boolean addInstance(String module, String name) {
+        /** Adds a top level instance of a defined module, which costs the same whatever the size of the module,
+         * returns false if an instance of that name is already defined
+         */
+        if (instanceIds.containsKey(name)) {
+            return false;
+        }
+        if (instanceCount == instanceName.length) {
+            instanceName = Arrays.copyOf(instanceName, instanceCount * 2);
+            instanceModule = Arrays.copyOf(instanceModule, instanceCount * 2);
+        }
+        instanceIds.put(name, instanceCount);
+        instanceName[instanceCount] = name;
+        instanceModule[instanceCount++] = moduleIds.get(module);
+        return true;
+    }
+
+    void expandInstance(ModuleTemplate module, String name) {
+        /** Copies the gates and wires of module into this builder, the gates named name.gate, for an instance
+         * inside the definition of another module
+         */
+        CompiledCircuit c = module.circuit;
+        int base = gateCount;
+        for (int g = 0; g < c.gateCount; g++) {
+            byte[] gateName = (name + "." + c.gateName[g]).getBytes(StandardCharsets.UTF_8);
+            if (!addGate(ByteBuffer.wrap(gateName), 0, gateName.length, c.gateType[g], CompiledCircuit.toTime(c.gateDelay[g]),
+                    c.faninStart[g + 1] - c.faninStart[g])) {
+                Errors.warn("Gate '" + name + "." + c.gateName[g] + "' has already been defined");
+                return;
+            }
+        }
+        for (int w = 0; w < c.wireCount; w++) {
+            addWire(base + c.wireSource[w], base + c.wireDest[w], c.wireInput[w], CompiledCircuit.toTime(c.wireDelay[w]));
+        }
+    }
+
+    private int instanceAt(int id) {
+        /** The instance of a gate id past the top level gates */
+        int i = Arrays.binarySearch(instanceBase, 0, instanceCount, id);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private CompiledCircuit moduleAt(int id) {  return modules.get(instanceModule[instanceAt(id)]).circuit;  }
+
+    private int instanceGate(String name) {
+        /** The id of a gate named instance.gate, -1 if there is none */
+        for (int dot = name.indexOf('.'); dot > 0; dot = name.indexOf('.', dot + 1)) {
+            Integer i = instanceIds.get(name.substring(0, dot));
+            if (i != null) {
+                int g = modules.get(instanceModule[i]).gate(name.substring(dot + 1));
+                if (g >= 0) {
+                    return instanceBase[i] + g;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int hash(ByteBuffer buf, int start, int length) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ buf.get(start + i)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private int find(ByteBuffer buf, int start, int length) {
+        /** Returns the table slot holding the named gate, or the empty slot it would go in */
+        int mask = table.length - 1;
+        int h = hash(buf, start, length);
+        lastHash = h;
+        int slot = h & mask;
+        while (table[slot] != 0) {
+            int g = (int) table[slot] - 1;
+            if ((int) (table[slot] >>> 32) == h && nameLength[g] == length && sameName(g, buf, start)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean sameName(int g, ByteBuffer buf, int start) {
+        int s = nameStart[g];
+        for (int i = 0; i < nameLength[g]; i++) {
+            if (names[s + i] != buf.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int gateId(ByteBuffer buf, int start, int length) {
+        return (int) table[find(buf, start, length)] - 1;
+    }
+
+    static int defaultInputs(byte type) {
+        /** The number of inputs of a gate whose line does not give it */
+        return type == CompiledCircuit.INPUT ? 0 : type == CompiledCircuit.NOT ? 1 : 2;
+    }
+
+    boolean addGate(ByteBuffer buf, int start, int length, byte type, float delay, int inputs) {
+        /** Defines a gate, returns false if a gate of that name is already defined
+         */
+        int slot = find(buf, start, length);
+        if (table[slot] != 0) {
+            return false;
+        }
+        if (gateCount == gateType.length) {
+            int n = gateCount * 2;
+            nameStart = Arrays.copyOf(nameStart, n);
+            nameLength = Arrays.copyOf(nameLength, n);
+            gateType = Arrays.copyOf(gateType, n);
+            gateDelay = Arrays.copyOf(gateDelay, n);
+            gateInputs = Arrays.copyOf(gateInputs, n);
+        }
+        while (namesUsed + length > names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        for (int i = 0; i < length; i++) {
+            names[namesUsed + i] = buf.get(start + i);
+        }
+        int g = gateCount++;
+        nameStart[g] = namesUsed;
+        nameLength[g] = length;
+        namesUsed += length;
+        gateType[g] = type;
+        gateDelay[g] = delay;
+        gateInputs[g] = inputs;
+        table[slot] = (long) lastHash << 32 | (g + 1);
+        if (gateCount * 2 > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    private void rehash() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        int mask = table.length - 1;
+        for (long entry : old) {
+            if (entry != 0) {
+                int slot = (int) (entry >>> 32) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = entry;
+            }
+        }
+    }
+
+    int gateRef(ByteBuffer buf, int start, int length) {
+        /** A reference to the named gate for a wire end, see the class comment
+         */
+        int g = gateId(buf, start, length);
+        if (g >= 0) {
+            return g;
+        }
+        if (pendingCount == pendingStart.length) {
+            pendingStart = Arrays.copyOf(pendingStart, pendingCount * 2);
+            pendingLength = Arrays.copyOf(pendingLength, pendingCount * 2);
+        }
+        while (pendingUsed + length > pendingNames.length) {
+            pendingNames = Arrays.copyOf(pendingNames, pendingNames.length * 2);
+        }
+        for (int i = 0; i < length; i++) {
+            pendingNames[pendingUsed + i] = buf.get(start + i);
+        }
+        pendingStart[pendingCount] = pendingUsed;
+        pendingLength[pendingCount] = length;
+        pendingUsed += length;
+        return -1 - pendingCount++;
+    }
+
+    String refName(int ref) {
+        /** The name a wire end was given, only used for messages */
+        return ref >= 0 ? gateName(ref)
+                : new String(pendingNames, pendingStart[-1 - ref], pendingLength[-1 - ref], StandardCharsets.UTF_8);
+    }
+
+    String gateName(int g) {
+        return new String(names, nameStart[g], nameLength[g], StandardCharsets.UTF_8);
+    }
+
+    private int resolve(int ref) {
+        if (ref >= 0) {
+            return ref;
+        }
+        ByteBuffer name = ByteBuffer.wrap(pendingNames);
+        int g = gateId(name, pendingStart[-1 - ref], pendingLength[-1 - ref]);
+        return g >= 0 || instanceCount == 0 ? g : instanceGate(refName(ref));
+    }
+
+    void addWire(int source, int dest, int input, float delay) {
+        if (wireCount == wireSource.length) {
+            int n = wireCount * 2;
+            wireSource = Arrays.copyOf(wireSource, n);
+            wireDest = Arrays.copyOf(wireDest, n);
+            wireInput = Arrays.copyOf(wireInput, n);
+            wireDelay = Arrays.copyOf(wireDelay, n);
+        }
+        wireSource[wireCount] = source;
+        wireDest[wireCount] = dest;
+        wireInput[wireCount] = input;
+        wireDelay[wireCount] = delay;
+        wireCount++;
+    }
+
+    void resolveWires() {
+        /** The second pass: looks up the wire ends that were not defined when the wire was read and makes the
+         * checks of Wire.checkWire in file order, with its messages.  Wires that fail are dropped.
+         * @see Wire#checkWire(java.util.HashMap)
+         */
+        inputStart = new int[gateCount + 1];
+        for (int g = 0; g < gateCount; g++) {
+            inputStart[g + 1] = inputStart[g] + gateInputs[g];
+        }
+        inputWire = new int[inputStart[gateCount]];
+        Arrays.fill(inputWire, -1);
+        instanceBase = new int[instanceCount];
+        portsTaken = new HashSet<>();
+        long next = gateCount;
+        for (int i = 0; i < instanceCount; i++) {
+            instanceBase[i] = (int) next;
+            next += modules.get(instanceModule[i]).circuit.gateCount;
+        }
+        if (next > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("more than " + Integer.MAX_VALUE + " gates");
+        }
+        int kept = 0;
+        for (int w = 0; w < wireCount; w++) {
+            int source = resolve(wireSource[w]);
+            int dest = resolve(wireDest[w]);
+            int input = wireInput[w];
+            if (input == IN_NOT_RESOLVED) {
+                input = 0;
+                if (dest >= 0 && typeOf(dest) != CompiledCircuit.NOT) {
+                    Errors.warn("wire " + refName(wireSource[w]) + " " + refName(wireDest[w]) + " Input String Expected (in1, in2, ..., in)");
+                }
+            }
+            if (source < 0) {
+                Errors.warn(refName(wireSource[w]) + ", no such source gate");
+                continue;
+            }
+            if (dest < 0) {
+                Errors.warn(refName(wireDest[w]) + ", no such destination gate");
+                continue;
+            }
+            if (input >= inputCount(dest)) {
+                Errors.warn(input + " --Input type not valid for  source gate: " + nameOf(dest) + " type: " + TYPE_NAMES[typeOf(dest)]);
+                continue;
+            }
+            if (dest >= gateCount) {
+                CompiledCircuit m = moduleAt(dest);
+                int l = dest - instanceBase[instanceAt(dest)];
+                if (m.faninWire[m.faninStart[l] + input] >= 0 || !portsTaken.add((long) dest << 32 | input)) {
+                    Errors.warn(nameOf(dest) + ", input " + input + " is already taken");
+                    continue;
+                }
+            } else if (inputWire[inputStart[dest] + input] != -1) {
+                Errors.warn(gateName(dest) + ", input " + input + " is already taken");
+                continue;
+            } else {
+                inputWire[inputStart[dest] + input] = kept;
+            }
+            wireSource[kept] = source;
+            wireDest[kept] = dest;
+            wireInput[kept] = input;
+            wireDelay[kept] = wireDelay[w];
+            kept++;
+        }
+        wireCount = kept;
+        pendingNames = null;
+        pendingStart = null;
+        pendingLength = null;
+    }
+
+    private int inputCount(int g) {
+        if (g >= gateCount) {
+            CompiledCircuit m = moduleAt(g);
+            int l = g - instanceBase[instanceAt(g)];
+            return m.faninStart[l + 1] - m.faninStart[l];
+        }
+        return gateInputs[g];
+    }
+
+    private byte typeOf(int g) {
+        return g < gateCount ? gateType[g] : moduleAt(g).gateType[g - instanceBase[instanceAt(g)]];
+    }
+
+    private String nameOf(int g) {
+        if (g < gateCount) {
+            return gateName(g);
+        }
+        int i = instanceAt(g);
+        return instanceName[i] + "." + modules.get(instanceModule[i]).circuit.gateName[g - instanceBase[i]];
+    }
+
+    private String inputName(int g, int i) {
+        return typeOf(g) == CompiledCircuit.NOT ? "in" : "in" + (i + 1);
+    }
+
+    boolean completeness() {
+        /** The check of LogicCircuit.completeness, in gate id order
+         * @see LogicCircuit#completeness()
+         */
+        for (int g = 0; g < gateCount; g++) {
+            for (int i = 0; i < inputCount(g); i++) {
+                if (inputWire[inputStart[g] + i] == -1) {
+                    Errors.warn("Unused Input in gate: '" + gateName(g) + "' type: " + TYPE_NAMES[gateType[g]] + " input: " + inputName(g, i));
+                    return false;
+                }
+            }
+        }
+        for (int i = 0; i < instanceCount; i++) {
+            for (long port : modules.get(instanceModule[i]).ports) {
+                int g = instanceBase[i] + (int) (port >>> 32);
+                if (!portsTaken.contains((long) g << 32 | (int) port)) {
+                    Errors.warn("Unused Input in gate: '" + nameOf(g) + "' type: " + TYPE_NAMES[typeOf(g)] + " input: " + inputName(g, (int) port));
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    void writeCircuit(PrintStream out) {
+        /** Writes the circuit the way LogicCircuit.writeCircuit does, gates in definition order
+         * @see LogicCircuit#writeCircuit()
+         */
+        for (int g = 0; g < gateCount; g++) {
+            out.println("gate " + TYPE_NAMES[gateType[g]] + " " + gateName(g) + " " + gateDelay[g]
+                    + (gateInputs[g] != defaultInputs(gateType[g]) ? " " + gateInputs[g] : ""));
+        }
+        for (int w = 0; w < wireCount; w++) {
+            out.println("wire " + gateName(wireSource[w]) + " " + gateName(wireDest[w]) + " " + wireInput[w] + " " + wireDelay[w]);
+        }
+    }
+
+    HierarchicalCircuit hierarchy() {
+        /** Builds the HierarchicalCircuit of a complete netlist with instances
+         * @see #completeness()
+         */
+        CompiledCircuit top = buildTables(false);
+        int[] wireDelays = new int[wireCount];
+        for (int w = 0; w < wireCount; w++) {
+            wireDelays[w] = CompiledCircuit.toTicks(wireDelay[w]);
+        }
+        return new HierarchicalCircuit(top.gateName, top.gateType, top.gateDelay, top.faninStart, top.faninWire,
+                Arrays.copyOf(wireSource, wireCount), Arrays.copyOf(wireDest, wireCount),
+                Arrays.copyOf(wireInput, wireCount), wireDelays, modules.toArray(new ModuleTemplate[0]),
+                Arrays.copyOf(instanceName, instanceCount), Arrays.copyOf(instanceModule, instanceCount));
+    }
+
+    CompiledCircuit build() {
+        /** Builds the CompiledCircuit of a complete netlist, a netlist with instances is flattened.
+         * The inputs of a module left open are the ports of its instances, their wire is -1
+         * @see #completeness()
+         */
+        return hierarchical() ? hierarchy().flatten() : buildTables(true);
+    }
+
+    private CompiledCircuit buildTables(boolean withWires) {
+        /** The tables of the gates, and of the wires unless they may end at instances */
+        String[] gateNames = new String[gateCount];
+        int[] delays = new int[gateCount];
+        int[] faninStart = new int[gateCount + 1];
+        int fanin = 0;
+        for (int g = 0; g < gateCount; g++) {
+            gateNames[g] = gateName(g);
+            delays[g] = CompiledCircuit.toTicks(gateDelay[g]);
+            faninStart[g] = fanin;
+            fanin += inputCount(g);
+        }
+        faninStart[gateCount] = fanin;
+        int[] faninWire = new int[fanin];
+        for (int g = 0; g < gateCount; g++) {
+            for (int i = 0; i < inputCount(g); i++) {
+                faninWire[faninStart[g] + i] = inputWire[inputStart[g] + i];
+            }
+        }
+        int wires = withWires ? wireCount : 0;
+        int[] wireDelays = new int[wires];
+        for (int w = 0; w < wires; w++) {
+            wireDelays[w] = CompiledCircuit.toTicks(wireDelay[w]);
+        }
+        return CompiledCircuit.assemble(gateNames, Arrays.copyOf(gateType, gateCount), delays, faninStart, faninWire,
+                Arrays.copyOf(wireSource, wires), Arrays.copyOf(wireDest, wires),
+                Arrays.copyOf(wireInput, wires), wireDelays);
+    }
+}
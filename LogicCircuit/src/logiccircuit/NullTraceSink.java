@@ -0,0 +1,13 @@
+package com.rwedoff;
+
+class NullTraceSink implements TraceSink {
+    /** Discards the trace, for benchmarking the event loop on its own */
+    @Override
+    public void begin(GateIndex circuit) { }
+    @Override
+    public void gateChanged(long tick, int g, boolean value) { }
+    @Override
+    public void flush() { }
+    @Override
+    public void close() { }
+}
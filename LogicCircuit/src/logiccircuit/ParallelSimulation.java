@@ -0,0 +1,644 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ParallelSimulation splits a CompiledCircuit into partitions and simulates each one on its own thread
+ * with its own event queue, using a conservative Chandy-Misra-Bryant style protocol.
+ *
+ * Every gate belongs to one partition and every wire to the partition of the gate it drives.
+ * When a gate schedules a wire event on a wire that leaves its partition, the sending partition keeps an
+ * export event at the same key; when it reaches that key it reads the gate, exactly as the wire event would,
+ * and sends the wire event with its value to the other partition.  Each partition also sends every neighbour
+ * a promise: no more messages with an earlier key will follow.  A gate event at tick t can only cause
+ * messages at t + gate delay or later, so the smallest delay of a gate driving a cut wire is the lookahead
+ * that lets partitions run ahead of each other.  A partition runs the events before the smallest promise it
+ * has been given, and the wire phase of that key as well, since wire events of one key do not affect each other.
+ *
+ * Because CompiledSimulation orders each tick into phases and sorts what a key reports by gate id,
+ * the merged trace is the same, line for line, as the sequential compiled simulation's.
+ * The calling thread merges it while the workers run, up to the smallest key any worker may still run,
+ * so a circuit that never settles streams its trace just as the sequential simulation does, and a run that is
+ * stopped by an event or wall clock limit ends with the trace merged so far.
+ * @see CompiledSimulation
+ * @see Partitioner
+ * @see RunLimits#run(ParallelSimulation)
+ */
+class ParallelSimulation {
+    final CompiledCircuit circuit;
+    final int[] partOf;
+    final int parts;
+    private final TraceSink trace;
+    private final Worker[] workers;
+    private final AtomicLong work = new AtomicLong();  //busy workers plus messages sent and not yet received
+    private volatile boolean done;
+    private volatile Exception failure;  //the first IOException or RuntimeException a worker stopped with
+    private long endKey = Long.MAX_VALUE;
+    private RunLimits limits;  //null to run until the event queues are empty
+    private static final int MERGE_INTERVAL_MS = 20;
+    private static final int BATCH = 1 << 14;  //events a worker runs before it publishes its progress again
+
+    ParallelSimulation(CompiledCircuit circuit, int parts, TraceSink trace) {
+        this(circuit, Partitioner.partition(circuit, parts), trace);
+    }
+
+    ParallelSimulation(CompiledCircuit circuit, int[] partOf, TraceSink trace) {
+        this.circuit = circuit;
+        this.partOf = partOf;
+        this.trace = trace;
+        int n = 0;
+        for (int p : partOf) {
+            n = Math.max(n, p + 1);
+        }
+        parts = n;
+        boolean[] gateValue = new boolean[circuit.gateCount];
+        boolean[] wireValue = new boolean[circuit.wireCount];
+        workers = new Worker[parts];
+        for (int p = 0; p < parts; p++) {
+            workers[p] = new Worker(p, gateValue, wireValue);
+        }
+        Channel[][] channels = new Channel[parts][parts];
+        for (int w = 0; w < circuit.wireCount; w++) {
+            int from = partOf[circuit.wireSource[w]];
+            int to = partOf[circuit.wireDest[w]];
+            if (from != to) {
+                if (channels[from][to] == null) {
+                    channels[from][to] = new Channel(workers[to]);
+                    workers[from].out.add(channels[from][to]);
+                    workers[to].in.add(channels[from][to]);
+                }
+                Channel ch = channels[from][to];
+                ch.lookahead = Math.min(ch.lookahead, circuit.gateDelay[circuit.wireSource[w]]);
+            }
+        }
+        for (Worker worker : workers) {
+            worker.outbox = new Outbox[parts];
+            for (Channel ch : worker.out) {
+                if (ch.lookahead <= 0) {
+                    throw new IllegalArgumentException("a wire driven by a gate with no delay is cut between partitions");
+                }
+                worker.outbox[ch.to.id] = new Outbox();
+            }
+        }
+    }
+
+    long eventCount() {
+        long n = 0;
+        for (Worker w : workers) {
+            n += w.eventCount;
+        }
+        return n;
+    }
+
+    int cutWires() {
+        return Partitioner.cutWires(circuit, partOf);
+    }
+
+    void setLimits(RunLimits limits) {
+        /** Bounds the simulation by time, events or wall clock, before the simulation is run */
+        this.limits = limits;
+    }
+
+    public void runSimulation() throws IOException {
+        if (limits == null) {
+            runBefore(Long.MAX_VALUE);
+        } else {
+            limits.run(this);
+        }
+    }
+
+    long pendingKey() {
+        /** The key of the next event of any partition once a run has ended, Long.MAX_VALUE once settled */
+        long key = Long.MAX_VALUE;
+        for (Worker w : workers) {
+            key = Math.min(key, w.nextKey());
+        }
+        return key;
+    }
+
+    void runBefore(long endKey) throws IOException {
+        runBefore(endKey, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    long runBefore(long endKey, long eventLimit, long deadline) throws IOException {
+        /** Runs all partitions until no event before endKey is left, then writes the merged trace.
+         * Once eventCount reaches eventLimit or System.nanoTime deadline, which is only looked at between merges,
+         * every partition is stopped and the trace ends at the key merged up to, which is returned;
+         * Long.MAX_VALUE if the run was not stopped
+         */
+        this.endKey = endKey;
+        long stopKey = Long.MAX_VALUE;
+        trace.begin(circuit);
+        work.set(parts);
+        Thread[] threads = new Thread[parts];
+        for (int p = 0; p < parts; p++) {
+            workers[p].seed();
+            threads[p] = new Thread(workers[p], "partition-" + p);
+            threads[p].start();
+        }
+        Records[] pending = new Records[parts];
+        for (int p = 0; p < parts; p++) {
+            pending[p] = new Records();
+        }
+        boolean running = true;
+        while (running) {
+            try {
+                for (Thread t : threads) {
+                    t.join(MERGE_INTERVAL_MS);
+                }
+            } catch (InterruptedException e) {
+                finish();
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while simulating");
+            }
+            running = false;
+            long horizon = Long.MAX_VALUE;
+            for (int p = 0; p < parts; p++) {
+                running |= threads[p].isAlive();
+                horizon = Math.min(horizon, workers[p].progress);
+            }
+            if (!running) {
+                horizon = Long.MAX_VALUE;
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            if (running && (eventCount() >= eventLimit || System.nanoTime() >= deadline)) {
+                finish();
+                try {
+                    for (Thread t : threads) {
+                        t.join();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while simulating");
+                }
+                stopKey = horizon;  //every event before it has run, the records after it are dropped
+                running = false;
+            }
+            for (int p = 0; p < parts; p++) {  //read the horizon first, every record before it is already recorded
+                workers[p].recorder.moveTo(pending[p]);
+            }
+            mergeBefore(pending, horizon);
+        }
+        trace.flush();
+        return stopKey;
+    }
+
+    private void finish() {
+        done = true;
+        for (Worker w : workers) {
+            w.signal();
+        }
+    }
+
+    private void mergeBefore(Records[] pending, long horizon) throws IOException {
+        /** Merges the partition traces reported before the horizon key by (key they were reported at, gate id),
+         * the order the sequential simulation reports them in
+         */
+        while (true) {
+            Records best = null;
+            long bestKey = horizon;
+            long bestCode = 0;
+            for (Records r : pending) {
+                if (r.head < r.size) {
+                    long key = r.key(r.head);
+                    long code = r.code[r.head];
+                    if (key < bestKey || (key == bestKey && best != null && code < bestCode)) {
+                        best = r;
+                        bestKey = key;
+                        bestCode = code;
+                    }
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            trace.gateChanged(best.tick[best.head], (int) (bestCode >>> 1), (bestCode & 1) != 0);
+            best.head++;
+        }
+        for (Records r : pending) {
+            r.compact();
+        }
+    }
+
+    class Records {
+        /** Transitions in the order a partition reported them */
+        long[] tick = new long[256];
+        long[] code = new long[256];   //gate << 1 | value
+        int head;                      //first record not merged yet
+        int size;
+
+        void add(long t, long c) {
+            if (size == tick.length) {
+                tick = Arrays.copyOf(tick, size * 2);
+                code = Arrays.copyOf(code, size * 2);
+            }
+            tick[size] = t;
+            code[size++] = c;
+        }
+
+        long key(int i) {
+            /** The key the transition was reported at, its gate event ran a gate delay before the transition */
+            int g = (int) (code[i] >>> 1);
+            return CompiledSimulation.gateKey(tick[i] - circuit.gateDelay[g]);
+        }
+
+        void compact() {
+            System.arraycopy(tick, head, tick, 0, size - head);
+            System.arraycopy(code, head, code, 0, size - head);
+            size -= head;
+            head = 0;
+        }
+    }
+
+    class Recorder implements TraceSink {
+        /** Collects a partition's transitions until the merging thread takes them */
+        private final Records records = new Records();
+
+        @Override
+        public void begin(GateIndex circuit) { }
+
+        @Override
+        public synchronized void gateChanged(long t, int g, boolean value) {
+            records.add(t, (long) g << 1 | (value ? 1 : 0));
+        }
+
+        synchronized void moveTo(Records into) {
+            for (int i = 0; i < records.size; i++) {
+                into.add(records.tick[i], records.code[i]);
+            }
+            records.size = 0;
+        }
+
+        @Override
+        public void flush() { }
+        @Override
+        public void close() { }
+    }
+
+    static class Outbox {
+        /** Messages waiting to be published to one neighbour */
+        long[] key = new long[64];
+        long[] code = new long[64];
+        int size;
+        long promised = -1;  //last promise published
+
+        void add(long k, long c) {
+            if (size == key.length) {
+                key = Arrays.copyOf(key, size * 2);
+                code = Arrays.copyOf(code, size * 2);
+            }
+            key[size] = k;
+            code[size++] = c;
+        }
+    }
+
+    static class Channel {
+        /** Carries remote wire events and promises from one partition to another, in key order */
+        final Worker to;
+        int lookahead = Integer.MAX_VALUE;  //smallest delay of a gate driving a wire on this channel, in ticks
+        private final ArrayDeque<long[]> batches = new ArrayDeque<>();
+        private long promise;               //no message with a smaller key will be published
+        long received;                      //promise seen by the receiver at its last drain, only used by it
+
+        Channel(Worker to) {
+            this.to = to;
+        }
+
+        void publish(Outbox box, long newPromise) {
+            synchronized (this) {
+                if (box.size > 0) {
+                    long[] batch = new long[box.size * 2];
+                    for (int i = 0; i < box.size; i++) {
+                        batch[2 * i] = box.key[i];
+                        batch[2 * i + 1] = box.code[i];
+                    }
+                    batches.add(batch);
+                    box.size = 0;
+                }
+                promise = newPromise;
+            }
+            to.signal();
+        }
+
+        synchronized int drainTo(EventScheduler queue) {
+            int n = 0;
+            for (long[] batch : batches) {
+                for (int i = 0; i < batch.length; i += 2) {
+                    queue.add(batch[i], batch[i + 1]);
+                }
+                n += batch.length / 2;
+            }
+            batches.clear();
+            received = promise;
+            return n;
+        }
+    }
+
+    class Worker extends CompiledSimulation implements Runnable {
+        /** Simulates one partition, gates and wire values are shared with the other workers but each
+         * worker only touches the gates and wires it owns
+         */
+        final int id;
+        final ArrayList<Channel> in = new ArrayList<>();
+        final ArrayList<Channel> out = new ArrayList<>();
+        Outbox[] outbox;
+        final HeapScheduler exports = new HeapScheduler();
+        final Recorder recorder;
+        volatile long progress;  //every key this worker will still run is at least progress
+        private boolean busy = true;
+        private long signals;
+
+        Worker(int id, boolean[] gateValue, boolean[] wireValue) {
+            super(ParallelSimulation.this.circuit, new TimingWheel(), ParallelSimulation.this.new Recorder(),
+                    gateValue, wireValue);
+            this.id = id;
+            recorder = (Recorder) trace;
+        }
+
+        void seed() {
+            for (int g = 0; g < circuit.gateCount; g++) {
+                if (partOf[g] == id && CompiledCircuit.startsHigh(circuit.gateType[g])) {
+                    eventQueue.add(gateKey(0), gateEvent(g));
+                }
+            }
+        }
+
+        @Override
+        void scheduleNet(int g, long tick) {
+            /** A wire event per out wire, so the wires cut between partitions can be sent on one by one */
+            for (int i = circuit.fanoutStart[g]; i < circuit.fanoutStart[g + 1]; i++) {
+                scheduleWire(circuit.fanoutWire[i], tick);
+            }
+        }
+
+        @Override
+        void scheduleWire(int w, long tick) {
+            if (partOf[circuit.wireDest[w]] != id) {
+                exports.add(wireKey(tick), wireEvent(w));
+            } else {
+                super.scheduleWire(w, tick);
+            }
+        }
+
+        private void runExport(long key, long code) throws IOException {
+            /** Reads the gate driving a cut wire at the time of its wire event and sends the event on */
+            advanceTo(key);
+            int w = eventId(code);
+            boolean value = gateValue[circuit.wireSource[w]];
+            outbox[partOf[circuit.wireDest[w]]].add(key, remoteWireEvent(w, value));
+        }
+
+        private long nextKey() {
+            long k = eventQueue.isEmpty() ? Long.MAX_VALUE : eventQueue.peekTime();
+            return exports.isEmpty() ? k : Math.min(k, exports.peekTime());
+        }
+
+        synchronized void signal() {
+            signals++;
+            notifyAll();
+        }
+
+        private synchronized long signals() {
+            return signals;
+        }
+
+        private synchronized void await(long seen) throws InterruptedException {
+            while (signals == seen && !done) {
+                wait(100);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!done) {
+                    long seen = signals();
+                    long safe = Long.MAX_VALUE;
+                    int received = 0;
+                    for (Channel ch : in) {
+                        received += ch.drainTo(eventQueue);
+                        safe = Math.min(safe, ch.received);
+                    }
+                    if (received > 0) {
+                        if (!busy) {
+                            busy = true;
+                            work.incrementAndGet();
+                        }
+                        work.addAndGet(-received);
+                    }
+
+                    int ran = 0;
+                    while (true) {
+                        long k = nextKey();
+                        //the wire phase of the promised key may run, wire events of one key do not affect each other
+                        if (k >= endKey || !(k < safe || ((k & 1) == 0 && k <= safe))) {
+                            break;
+                        }
+                        //a key is never split between batches, its reports are sorted as one
+                        if (ran >= BATCH && k != now) {
+                            break;
+                        }
+                        if (!exports.isEmpty() && exports.peekTime() == k) {
+                            runExport(k, exports.poll());
+                        } else {
+                            runEvent(k, eventQueue.poll());
+                        }
+                        ran++;
+                    }
+                    flushTrace();
+                    progress = Math.min(nextKey(), safe);
+
+                    long bound = Math.min(eventQueue.isEmpty() ? Long.MAX_VALUE : eventQueue.peekTime(), safe);
+                    for (Channel ch : out) {
+                        Outbox box = outbox[ch.to.id];
+                        long promise = bound == Long.MAX_VALUE ? Long.MAX_VALUE : wireKey(tickOf(bound) + ch.lookahead);
+                        if (!exports.isEmpty()) {
+                            promise = Math.min(promise, exports.peekTime());
+                        }
+                        if (box.size > 0 || promise != box.promised) {
+                            work.addAndGet(box.size);
+                            box.promised = promise;
+                            ch.publish(box, promise);
+                        }
+                    }
+
+                    if (nextKey() >= endKey) {
+                        if (busy) {
+                            busy = false;
+                            if (work.decrementAndGet() == 0) {
+                                finish();
+                            }
+                        } else if (work.get() == 0) {
+                            finish();
+                        }
+                    }
+                    if (ran == 0 && received == 0) {
+                        await(seen);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                finish();
+            } catch (InterruptedException e) {
+                finish();
+            }
+        }
+    }
+}
+
+class Partitioner {
+    /** Splits the gates of a circuit into parts of about the same size while cutting as few wires as possible.
+     * Parts are grown breadth first over the wires, so connected gates tend to land in the same part, and then
+     * refined by moving single gates to the part most of their wires lead to while that keeps the parts balanced.
+     * A wire driven by a gate with no delay gives no lookahead, so such gates are kept with the gates they drive.
+     */
+    static int[] partition(CompiledCircuit c, int parts) {
+        int n = c.gateCount;
+        parts = Math.max(1, Math.min(parts, n));
+        int[] part = new int[n];
+        if (parts == 1) {
+            return part;
+        }
+
+        //Gates joined by wires from zero delay gates form clusters that are placed as one
+        int[] root = new int[n];
+        for (int g = 0; g < n; g++) {
+            root[g] = g;
+        }
+        for (int w = 0; w < c.wireCount; w++) {
+            if (c.gateDelay[c.wireSource[w]] == 0) {
+                int a = find(root, c.wireSource[w]);
+                int b = find(root, c.wireDest[w]);
+                root[a] = b;
+            }
+        }
+        int[] clusterStart = new int[n + 1];
+        int[] clusterGate = new int[n];
+        for (int g = 0; g < n; g++) {
+            clusterStart[find(root, g) + 1]++;
+        }
+        for (int g = 0; g < n; g++) {
+            clusterStart[g + 1] += clusterStart[g];
+        }
+        int[] fill = Arrays.copyOf(clusterStart, n);
+        for (int g = 0; g < n; g++) {
+            clusterGate[fill[find(root, g)]++] = g;
+        }
+
+        //Grow each part breadth first from an unassigned gate
+        Arrays.fill(part, -1);
+        int target = (n + parts - 1) / parts;
+        int[] size = new int[parts];
+        int[] queue = new int[n];
+        int nextSeed = 0;
+        for (int p = 0; p < parts; p++) {
+            int head = 0;
+            int tail = 0;
+            while (size[p] < target || p == parts - 1) {
+                if (head == tail) {
+                    while (nextSeed < n && part[nextSeed] != -1) {
+                        nextSeed++;
+                    }
+                    if (nextSeed == n) {
+                        break;
+                    }
+                    tail = assign(c, root, clusterStart, clusterGate, part, size, p, nextSeed, queue, tail);
+                    continue;
+                }
+                int g = queue[head++];
+                for (int i = c.faninStart[g]; i < c.faninStart[g + 1]; i++) {
+                    int other = c.wireSource[c.faninWire[i]];
+                    if (part[other] == -1) {
+                        tail = assign(c, root, clusterStart, clusterGate, part, size, p, other, queue, tail);
+                    }
+                }
+                for (int i = c.fanoutStart[g]; i < c.fanoutStart[g + 1]; i++) {
+                    int other = c.wireDest[c.fanoutWire[i]];
+                    if (part[other] == -1) {
+                        tail = assign(c, root, clusterStart, clusterGate, part, size, p, other, queue, tail);
+                    }
+                }
+            }
+        }
+
+        //Move single gates to the part they have the most wires to, keeping parts within 5% of the target
+        int maxSize = target + Math.max(1, target / 20);
+        int minSize = Math.max(1, target - Math.max(1, target / 20));
+        int[] links = new int[parts];
+        for (int pass = 0; pass < 4; pass++) {
+            int moved = 0;
+            for (int g = 0; g < n; g++) {
+                if (clusterStart[find(root, g) + 1] - clusterStart[find(root, g)] != 1) {
+                    continue;
+                }
+                Arrays.fill(links, 0);
+                for (int i = c.faninStart[g]; i < c.faninStart[g + 1]; i++) {
+                    links[part[c.wireSource[c.faninWire[i]]]]++;
+                }
+                for (int i = c.fanoutStart[g]; i < c.fanoutStart[g + 1]; i++) {
+                    links[part[c.wireDest[c.fanoutWire[i]]]]++;
+                }
+                int from = part[g];
+                int best = from;
+                for (int p = 0; p < parts; p++) {
+                    if (links[p] > links[best] && size[p] < maxSize) {
+                        best = p;
+                    }
+                }
+                if (best != from && size[from] > minSize) {
+                    part[g] = best;
+                    size[from]--;
+                    size[best]++;
+                    moved++;
+                }
+            }
+            if (moved == 0) {
+                break;
+            }
+        }
+        return part;
+    }
+
+    private static int assign(CompiledCircuit c, int[] root, int[] clusterStart, int[] clusterGate,
+                              int[] part, int[] size, int p, int g, int[] queue, int tail) {
+        /** Puts the whole cluster of gate g in part p and queues its gates */
+        int r = find(root, g);
+        for (int i = clusterStart[r]; i < clusterStart[r + 1]; i++) {
+            int member = clusterGate[i];
+            if (part[member] == -1) {
+                part[member] = p;
+                size[p]++;
+                queue[tail++] = member;
+            }
+        }
+        return tail;
+    }
+
+    private static int find(int[] root, int g) {
+        while (root[g] != g) {
+            root[g] = root[root[g]];
+            g = root[g];
+        }
+        return g;
+    }
+
+    static int cutWires(CompiledCircuit c, int[] part) {
+        int cut = 0;
+        for (int w = 0; w < c.wireCount; w++) {
+            if (part[c.wireSource[w]] != part[c.wireDest[w]]) {
+                cut++;
+            }
+        }
+        return cut;
+    }
+}
@@ -0,0 +1,76 @@
+package com.rwedoff;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+/**
+ * ParseBenchmark measures the startup time of a large netlist: it writes a generated netlist of the given number
+ * of lines, the coupled rings of ScalingBenchmark, and times MappedNetlistParser and the CompiledCircuit it builds.
+ * With -scanner it also times the Scanner based LogicCircuit.initCircuit and LogicCircuit.compile, which
+ * needs a lot more memory.  The netlist is kept if a file is given and reused if it already exists.
+ *
+ * Usage: ParseBenchmark [lines] [file] [-scanner]
+ * @see MappedNetlistParser
+ */
+public class ParseBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        long lines = 10000000;
+        Path file = null;
+        boolean scanner = false;
+        for (String arg : args) {
+            if (arg.equals("-scanner")) {
+                scanner = true;
+            } else if (Character.isDigit(arg.charAt(0))) {
+                lines = Long.parseLong(arg);
+            } else {
+                file = Paths.get(arg);
+            }
+        }
+        boolean temporary = file == null;
+        if (temporary) {
+            file = Files.createTempFile("netlist", ".txt");
+        }
+        if (temporary || !Files.exists(file)) {
+            long start = System.nanoTime();
+            try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 20)) {
+                ScalingBenchmark.coupledRings((int) (lines / 12), 42, out);
+            }
+            System.out.printf("wrote %s, %,d bytes in %.2f s%n", file, Files.size(file), (System.nanoTime() - start) / 1e9);
+        }
+
+        try {
+            long start = System.nanoTime();
+            NetlistBuilder netlist = MappedNetlistParser.parse(file);
+            double parsed = (System.nanoTime() - start) / 1e9;
+            if (!netlist.completeness()) {
+                Errors.fatal("the netlist is not complete");
+            }
+            CompiledCircuit c = netlist.build();
+            double built = (System.nanoTime() - start) / 1e9;
+            System.out.printf("mapped   parse %7.2f s  build %7.2f s  %,d gates  %,d wires  %,.0f lines/s%n",
+                    parsed, built - parsed, c.gateCount, c.wireCount, (c.gateCount + c.wireCount) / built);
+
+            if (scanner) {
+                start = System.nanoTime();
+                LogicCircuit.initCircuit(new Scanner(new File(file.toString())));
+                parsed = (System.nanoTime() - start) / 1e9;
+                c = LogicCircuit.compile();
+                built = (System.nanoTime() - start) / 1e9;
+                System.out.printf("scanner  parse %7.2f s  build %7.2f s  %,d gates  %,d wires  %,.0f lines/s%n",
+                        parsed, built - parsed, c.gateCount, c.wireCount, (c.gateCount + c.wireCount) / built);
+            }
+        } finally {
+            if (temporary) {
+                Files.delete(file);
+            }
+        }
+    }
+}
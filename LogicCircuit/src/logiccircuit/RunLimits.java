@@ -0,0 +1,225 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * RunLimits bounds a CompiledSimulation that might never settle, like the rings of not gates initSimulation
+ * starts oscillating: by simulated time, by the number of events run, by wall clock time, and by steady state
+ * detection, which stops a simulation once it repeats itself.  A BitParallelSimulation is bounded the same way,
+ * and a ParallelSimulation by all but steady state detection.
+ *
+ * Steady state detection hashes the state of the simulation every interval ticks, see
+ * CompiledSimulation.state: the gate and wire values and the queued events relative to the tick.  Once the
+ * stimulus is over, the same state at two ticks means the simulation repeats with that lag from then on.  The
+ * lag is a multiple of the period, so the state is compared exactly a lag later, then the lag is divided by
+ * each of its prime factors for as long as the state still comes back that much later, which leaves the period.
+ * @see CompiledSimulation#setLimits(RunLimits)
+ * @see BitParallelSimulation#setLimits(RunLimits)
+ */
+class RunLimits {
+    interface Bounded {
+        /** A simulation RunLimits can run in chunks, the methods are those of CompiledSimulation
+         * @see CompiledSimulation#runBefore(long, long)
+         * @see CompiledSimulation#state(long)
+         */
+        void runBefore(long endKey, long eventLimit) throws IOException;
+        long pendingKey();
+        long eventCount();
+        long now();
+        boolean stimulusDone();
+        long[] state(long tick);
+    }
+
+    /** Why a run stopped */
+    static final int SETTLED = 0;
+    static final int TIME_LIMIT = 1;
+    static final int EVENT_LIMIT = 2;
+    static final int WALL_LIMIT = 3;
+    static final int PERIODIC = 4;
+
+    private static final long CHUNK = 1 << 16;  //events run between looks at the clock
+
+    long endTick = Long.MAX_VALUE;    //events after it are not run
+    long maxEvents = Long.MAX_VALUE;
+    long wallNanos = Long.MAX_VALUE;
+    long interval;                    //ticks between state hashes, 0 for no steady state detection
+
+    int stopped = SETTLED;
+    long stopTick;                    //simulated time the run stopped at
+    long period;                      //in ticks, when PERIODIC
+    long periodStart;                 //a tick whose state was seen again a period later
+    private long deadline;
+
+    RunLimits copy() {
+        /** The same bounds for another run, before it is run */
+        RunLimits r = new RunLimits();
+        r.endTick = endTick;
+        r.maxEvents = maxEvents;
+        r.wallNanos = wallNanos;
+        r.interval = interval;
+        return r;
+    }
+
+    boolean bounded() {
+        return endTick != Long.MAX_VALUE || maxEvents != Long.MAX_VALUE || wallNanos != Long.MAX_VALUE || interval > 0;
+    }
+
+    void run(Bounded sim) throws IOException {
+        /** Runs sim until it settles or a limit stops it, stopped says which
+         */
+        long start = System.nanoTime();
+        deadline = wallNanos > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + wallNanos;
+        if (interval <= 0) {
+            runTo(sim, Long.MAX_VALUE);
+            return;
+        }
+        HashMap<Long, Long> seen = new HashMap<>();  //state hash -> tick it was seen at
+        long check = (CompiledSimulation.tickOf(sim.now()) / interval + 1) * interval;  //after the tick of a restored run
+        while (runTo(sim, check)) {
+            if (!sim.stimulusDone()) {
+                check += interval;
+                continue;
+            }
+            long[] state = sim.state(check);
+            Long earlier = seen.putIfAbsent(hash(state), check);
+            if (earlier == null) {
+                check += interval;
+                continue;
+            }
+            long lag = check - earlier;
+            if (!runTo(sim, check + lag)) {
+                return;
+            }
+            long[] later = sim.state(check + lag);
+            if (Arrays.equals(state, later)) {
+                findPeriod(sim, check, lag, state);
+                return;
+            }
+            check += lag;  //hashes collided, go on from the checkpoint reached
+            seen.put(hash(later), check);
+            check += interval;
+        }
+    }
+
+    private void findPeriod(Bounded sim, long at, long lag, long[] state) throws IOException {
+        /** The state at tick at comes back lag later, and the simulation is there: divides lag down to the period,
+         * trying each shorter lag from a tick of that state
+         */
+        long tick = at + lag;
+        long p = lag;
+        long rest = lag;  //factors of lag still to try
+        for (long q = 2; rest > 1; q++) {
+            if (q > rest / q) {
+                q = rest;  //what is left is prime
+            }
+            while (rest % q == 0) {
+                rest /= q;
+                if (!runTo(sim, tick + p / q)) {
+                    return;
+                }
+                if (Arrays.equals(state, sim.state(tick + p / q))) {
+                    tick += p / q;
+                    p /= q;
+                } else {
+                    //p / q is not a period, nor is p / q^2, back to the state a whole period on
+                    while (rest % q == 0) {
+                        rest /= q;
+                    }
+                    if (!runTo(sim, tick + p)) {
+                        return;
+                    }
+                    tick += p;
+                }
+            }
+        }
+        stopped = PERIODIC;
+        stopTick = tick;
+        period = p;
+        periodStart = at;
+    }
+
+    private boolean runTo(Bounded sim, long tick) throws IOException {
+        /** Runs the events before tick, false if the simulation settled or a limit stopped it first
+         */
+        long endKey = tick == Long.MAX_VALUE ? Long.MAX_VALUE : CompiledSimulation.wireKey(tick);
+        long limitKey = endTick == Long.MAX_VALUE ? Long.MAX_VALUE : CompiledSimulation.wireKey(endTick + 1);
+        while (true) {
+            sim.runBefore(Math.min(endKey, limitKey), Math.min(maxEvents, sim.eventCount() + CHUNK));
+            long next = sim.pendingKey();
+            if (next == Long.MAX_VALUE) {
+                stopped = SETTLED;
+                stopTick = CompiledSimulation.tickOf(sim.now());
+                return false;
+            } else if (next >= endKey) {
+                return true;
+            } else if (next >= limitKey) {
+                return stop(TIME_LIMIT, endTick);
+            } else if (sim.eventCount() >= maxEvents) {
+                return stop(EVENT_LIMIT, CompiledSimulation.tickOf(sim.now()));
+            } else if (System.nanoTime() >= deadline) {
+                return stop(WALL_LIMIT, CompiledSimulation.tickOf(sim.now()));
+            }
+        }
+    }
+
+    void run(ParallelSimulation sim) throws IOException {
+        /** Runs sim until it settles or a limit stops it.  The partitions run on their own threads, so the event
+         * and wall clock limits are checked each time their traces are merged, and stop every partition at the key
+         * merged up to: the event limit is overrun by what the partitions ran ahead in the meantime
+         */
+        if (interval > 0) {
+            throw new IllegalArgumentException("steady state detection needs the state of a single simulation");
+        }
+        long start = System.nanoTime();
+        deadline = wallNanos > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + wallNanos;
+        long limitKey = endTick == Long.MAX_VALUE ? Long.MAX_VALUE : CompiledSimulation.wireKey(endTick + 1);
+        long stopKey = sim.runBefore(limitKey, maxEvents, deadline);
+        if (stopKey != Long.MAX_VALUE) {
+            stop(sim.eventCount() >= maxEvents ? EVENT_LIMIT : WALL_LIMIT, CompiledSimulation.tickOf(stopKey));
+        } else if (sim.pendingKey() != Long.MAX_VALUE) {
+            stop(TIME_LIMIT, endTick);
+        } else {
+            stopped = SETTLED;
+        }
+    }
+
+    private boolean stop(int reason, long tick) {
+        stopped = reason;
+        stopTick = tick;
+        return false;
+    }
+
+    private static long hash(long[] state) {
+        long h = 17;
+        for (long x : state) {
+            h = (h ^ x) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        return h;
+    }
+
+    String reason() {
+        if (stopped == TIME_LIMIT) {
+            return "time limit";
+        } else if (stopped == EVENT_LIMIT) {
+            return "event limit";
+        } else if (stopped == WALL_LIMIT) {
+            return "wall clock limit of " + wallNanos / 1e9 + " s";
+        } else if (stopped == PERIODIC) {
+            return "steady state, the state at time " + CompiledCircuit.toTime(periodStart)
+                    + " repeats every " + CompiledCircuit.toTime(period);
+        }
+        return "settled";
+    }
+
+    void writeOutcome(PrintStream out, long events) {
+        /** Says why a run that did not settle stopped, nothing if it settled
+         */
+        if (stopped != SETTLED) {
+            out.println("Stopped at time " + CompiledCircuit.toTime(stopTick) + " after " + events + " events: " + reason());
+        }
+    }
+}
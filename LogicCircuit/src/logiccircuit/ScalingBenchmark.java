@@ -0,0 +1,102 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.Scanner;
+
+/**
+ * ScalingBenchmark measures how ParallelSimulation scales with the number of threads.
+ * It generates a ring of coupled cells, each a three inverter oscillator mixed with its neighbours through
+ * an and gate and an or gate, simulates it for a fixed time with 1, 2, 4 ... threads, and checks that every run
+ * reports the same trace as the sequential compiled simulation.
+ *
+ * Usage: ScalingBenchmark [cells] [time] [max threads]
+ * @see ParallelSimulation
+ */
+public class ScalingBenchmark {
+
+    static String coupledRings(int cells, long seed) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            coupledRings(cells, seed, sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);  //a StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+
+    static void coupledRings(int cells, long seed, Appendable out) throws IOException {
+        /** Writes the netlist of the benchmark circuit, 12 lines per cell, delays are random so the cells drift apart
+         */
+        Random r = new Random(seed);
+        for (int i = 0; i < cells; i++) {
+            for (String g : new String[]{"a", "b", "c"}) {
+                out.append("gate not " + g + i + " " + hundredths(100 + r.nextInt(300)) + "\n");
+            }
+            out.append("gate and x" + i + " " + hundredths(50 + r.nextInt(100)) + "\n");
+            out.append("gate or y" + i + " " + hundredths(50 + r.nextInt(100)) + "\n");
+        }
+        for (int i = 0; i < cells; i++) {
+            int prev = (i + cells - 1) % cells;
+            int next = (i + 1) % cells;
+            out.append("wire a" + i + " b" + i + " in 0.1\n");
+            out.append("wire b" + i + " c" + i + " in 0.1\n");
+            out.append("wire c" + i + " a" + i + " in 0.1\n");
+            out.append("wire c" + i + " x" + i + " in1 0.2\n");
+            out.append("wire c" + prev + " x" + i + " in2 0.3\n");
+            out.append("wire x" + i + " y" + i + " in1 0.2\n");
+            out.append("wire a" + next + " y" + i + " in2 0.3\n");
+        }
+    }
+
+    private static String hundredths(int n) {
+        /** Writes n / 100 with two decimals, adding doubles would give delays like 2.9899999999999998 */
+        return n / 100 + (n % 100 < 10 ? ".0" : ".") + n % 100;
+    }
+
+    static class HashTraceSink extends NullTraceSink {
+        /** Reduces a trace to a count and an order sensitive hash, to compare runs without storing them */
+        long hash = 17;
+        long count;
+
+        @Override
+        public void gateChanged(long tick, int g, boolean value) {
+            hash = hash * 1000003 + tick * 31 + g * 2 + (value ? 1 : 0);
+            count++;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int cells = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        long time = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        LogicCircuit.initCircuit(new Scanner(coupledRings(cells, 42)));
+        if (!LogicCircuit.completeness()) {
+            Errors.fatal("generated circuit is not complete");
+        }
+        CompiledCircuit c = LogicCircuit.compile();
+        long endKey = CompiledSimulation.wireKey(time * CompiledCircuit.TICKS_PER_UNIT + 1);
+        System.out.println(c.gateCount + " gates, " + c.wireCount + " wires, simulated for " + time + " time units");
+
+        HashTraceSink reference = new HashTraceSink();
+        CompiledSimulation sequential = new CompiledSimulation(c, new TimingWheel(), reference);
+        long start = System.nanoTime();
+        sequential.initSimulation();
+        sequential.runBefore(endKey);
+        double base = (System.nanoTime() - start) / 1e9;
+        System.out.printf("sequential  %8.3f s  %,12d events  %,14.0f events/s%n",
+                base, sequential.eventCount, sequential.eventCount / base);
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            HashTraceSink hash = new HashTraceSink();
+            ParallelSimulation parallel = new ParallelSimulation(c, threads, hash);
+            start = System.nanoTime();
+            parallel.runBefore(endKey);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%2d threads  %8.3f s  %,12d events  %,14.0f events/s  speedup %5.2f  cut wires %,d  %s%n",
+                    threads, seconds, parallel.eventCount(), parallel.eventCount() / seconds, base / seconds,
+                    parallel.cutWires(), hash.hash == reference.hash && hash.count == reference.count ? "same trace" : "TRACE DIFFERS");
+        }
+    }
+}
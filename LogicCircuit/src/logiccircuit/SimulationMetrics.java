@@ -0,0 +1,193 @@
+package com.rwedoff;
+
+import java.io.PrintStream;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * SimulationMetrics collects what a CompiledSimulation does while it runs, when instrumentation is turned on
+ * with CompiledSimulation.setMetrics: events run per kind, the depth of the event queue, how often each gate
+ * toggles, the gate events that found their gate unchanged, and the wall time spent on each simulated time unit.
+ * Without metrics the event loop only pays for a null check.
+ *
+ * Every simulated time unit with events in it is also recorded as a SimulationUnitEvent, and the whole run as a
+ * SimulationRunEvent, for Java Flight Recorder, e.g. java -XX:StartFlightRecording=filename=run.jfr ...
+ * @see CompiledSimulation#setMetrics(SimulationMetrics)
+ */
+class SimulationMetrics {
+    private final CompiledCircuit circuit;
+    long gateEvents;
+    long wireEvents;
+    long unchangedGateEvents;   //and and or gate events that left their gate as it was, so scheduled nothing
+    long cancelledTransitions;  //inertial delay: pending transitions of gates and wires dropped as too short
+    long peakQueueDepth;
+    private long queueDepthSum;
+    final long[] toggles;       //per gate, transitions to a new value
+    long units;                 //simulated time units that had events
+    long maxUnitNanos;          //wall time of the slowest unit
+    long slowestUnit;
+    private long startNanos;
+    private long endNanos;
+    private long unit = -1;     //unit being run
+    private long unitStartNanos;
+    private long unitEvents;
+    private SimulationUnitEvent unitEvent;
+
+    SimulationMetrics(CompiledCircuit circuit) {
+        this.circuit = circuit;
+        toggles = new long[circuit.gateCount];
+    }
+
+    void start() {
+        new SimulationUnitEvent().shouldCommit();  //loads the event classes now rather than in the first unit
+        new SimulationRunEvent().shouldCommit();
+        startNanos = System.nanoTime();
+        unitStartNanos = startNanos;
+    }
+
+    void eventRun(int kind, int queueDepth) {
+        if (kind == CompiledSimulation.GATE_EVENT || kind == CompiledSimulation.GATE_OUTPUT_EVENT
+                || kind == CompiledSimulation.INPUT_EVENT || kind == CompiledSimulation.NET_ARRIVAL_EVENT) {
+            gateEvents++;
+        } else {
+            wireEvents++;
+        }
+        queueDepthSum += queueDepth;
+        peakQueueDepth = Math.max(peakQueueDepth, queueDepth);
+        unitEvents++;
+    }
+
+    void advance(long tick) {
+        /** Called when the simulation moves to tick, closes the unit it leaves */
+        long u = tick / CompiledCircuit.TICKS_PER_UNIT;
+        if (u == unit) {
+            return;
+        }
+        long nanos = System.nanoTime();
+        endUnit(nanos);
+        unit = u;
+        unitStartNanos = nanos;
+        unitEvents = 0;
+        unitEvent = new SimulationUnitEvent();
+        unitEvent.begin();
+    }
+
+    private void endUnit(long nanos) {
+        if (unit < 0) {
+            return;
+        }
+        units++;
+        if (nanos - unitStartNanos > maxUnitNanos) {
+            maxUnitNanos = nanos - unitStartNanos;
+            slowestUnit = unit;
+        }
+        unitEvent.unit = unit;
+        unitEvent.events = unitEvents;
+        unitEvent.commit();
+    }
+
+    void finish() {
+        endNanos = System.nanoTime();
+        endUnit(endNanos);
+        unit = -1;
+        SimulationRunEvent run = new SimulationRunEvent();
+        run.gates = circuit.gateCount;
+        run.gateEvents = gateEvents;
+        run.wireEvents = wireEvents;
+        run.unchangedGateEvents = unchangedGateEvents;
+        run.cancelledTransitions = cancelledTransitions;
+        run.peakQueueDepth = peakQueueDepth;
+        run.toggles = totalToggles();
+        run.units = units;
+        run.commit();
+    }
+
+    long events() {  return gateEvents + wireEvents;  }
+    double averageQueueDepth() {  return events() == 0 ? 0 : (double) queueDepthSum / events();  }
+    long wallNanos() {  return endNanos - startNanos;  }
+
+    long totalToggles() {
+        long n = 0;
+        for (long t : toggles) {
+            n += t;
+        }
+        return n;
+    }
+
+    int[] hottestGates(int n) {
+        /** The n gates that toggled most, most first */
+        n = Math.min(n, toggles.length);
+        int[] hot = new int[n];
+        int found = 0;
+        for (int g = 0; g < toggles.length; g++) {
+            if (toggles[g] == 0) {
+                continue;
+            }
+            int i = Math.min(found, n - 1);
+            if (found == n && toggles[g] <= toggles[hot[i]]) {
+                continue;
+            }
+            while (i > 0 && toggles[hot[i - 1]] < toggles[g]) {
+                hot[i] = hot[i - 1];
+                i--;
+            }
+            hot[i] = g;
+            found = Math.min(found + 1, n);
+        }
+        return java.util.Arrays.copyOf(hot, found);
+    }
+
+    void writeSummary(PrintStream out) {
+        double seconds = wallNanos() / 1e9;
+        out.println("Events: " + events() + " (gate " + gateEvents + ", wire " + wireEvents + "), "
+                + String.format("%.0f", events() / Math.max(seconds, 1e-9)) + " per second");
+        out.println("Gate events that changed nothing: " + unchangedGateEvents);
+        if (cancelledTransitions > 0) {
+            out.println("Transitions cancelled by inertial delay: " + cancelledTransitions);
+        }
+        out.println("Queue depth: peak " + peakQueueDepth + ", average " + String.format("%.1f", averageQueueDepth()));
+        out.println("Toggles: " + totalToggles());
+        for (int g : hottestGates(10)) {
+            out.println("  " + circuit.gateName[g] + " " + toggles[g]);
+        }
+        out.println("Wall time: " + String.format("%.3f", seconds) + " s over " + units + " time units, "
+                + String.format("%.1f", units == 0 ? 0 : wallNanos() / 1e3 / units) + " us per unit, slowest "
+                + String.format("%.1f", maxUnitNanos / 1e3) + " us at time " + slowestUnit);
+    }
+}
+
+@Name("com.rwedoff.SimulationUnit")
+@Label("Simulated Time Unit")
+@Category("LogicCircuit")
+@Description("The events of one simulated time unit, the duration is the wall time they took")
+class SimulationUnitEvent extends Event {
+    @Label("Unit")
+    long unit;
+    @Label("Events")
+    long events;
+}
+
+@Name("com.rwedoff.SimulationRun")
+@Label("Simulation Run")
+@Category("LogicCircuit")
+class SimulationRunEvent extends Event {
+    @Label("Gates")
+    int gates;
+    @Label("Gate Events")
+    long gateEvents;
+    @Label("Wire Events")
+    long wireEvents;
+    @Label("Unchanged Gate Events")
+    long unchangedGateEvents;
+    @Label("Cancelled Transitions")
+    long cancelledTransitions;
+    @Label("Peak Queue Depth")
+    long peakQueueDepth;
+    @Label("Toggles")
+    long toggles;
+    @Label("Time Units")
+    long units;
+}
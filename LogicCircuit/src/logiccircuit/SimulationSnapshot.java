@@ -0,0 +1,134 @@
+package com.rwedoff;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SimulationSnapshot saves the state of a CompiledSimulation between two keys to a file and loads it back, so a long
+ * run can be resumed after a crash and many runs can be forked from one warmed up state without replaying it.
+ * The snapshot is a flat array of little endian longs written and read through a memory mapping:
+ *
+ *     magic, version, circuit fingerprint, current key, events run, stimulus line,
+ *     gate count, wire count, inertial (0 or 1), pending event count,
+ *     gate values and wire values packed 64 to a long,
+ *     if inertial, the pending transition tick of every gate and wire,
+ *     (key, event code) of every pending event in the order they are polled
+ *
+ * Loading maps the file and takes every array out of the mapping in bulk, no stream or per record object is involved.
+ * The stimulus line is the line a StimulusReader resumes from, 0 for a run without stimulus and -1 when the
+ * stimulus has all been queued.  A snapshot is limited to 2 GB, about 130 million pending events.
+ * @see CompiledSimulation#runSimulation(long, Path)
+ */
+class SimulationSnapshot {
+    static final long MAGIC = 0x50414E5343434C00L;  //"\0LCCSNAP" read little endian
+    static final long VERSION = 2;  //2 may hold net events, 1 is still read
+    private static final int HEADER = 10;  //longs
+
+    private SimulationSnapshot() { }
+
+    static void write(CompiledSimulation sim, Path file) throws IOException {
+        /** Saves sim, which must be between keys, with nothing left to pass to its trace
+         */
+        CompiledCircuit c = sim.circuit;
+        int gateWords = (c.gateCount + 63) >>> 6;
+        int wireWords = (c.wireCount + 63) >>> 6;
+        boolean inertial = sim.inertial();
+        long events = sim.eventQueue.size();
+        long longs = HEADER + gateWords + wireWords + (inertial ? c.gateCount + c.wireCount : 0) + 2 * events;
+        if (longs * 8 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("a snapshot of " + events + " pending events is over 2 GB");
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_WRITE, 0, longs * 8);
+            LongBuffer out = map.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            out.put(MAGIC).put(VERSION).put(c.fingerprint()).put(sim.now).put(sim.eventCount).put(sim.stimulusLine())
+                    .put(c.gateCount).put(c.wireCount).put(inertial ? 1 : 0).put(events);
+            putBits(out, sim.gateValue);
+            putBits(out, sim.wireValue);
+            if (inertial) {
+                out.put(sim.gatePending).put(sim.wirePending);
+            }
+            sim.eventQueue.forEach((time, code) -> out.put(time).put(code));
+            map.force();
+        }
+    }
+
+    static long restore(CompiledSimulation sim, Path file) throws IOException {
+        /** Loads a snapshot of the same circuit into sim, a new simulation that has not been run with the same
+         * kind of delay, and returns the line its stimulus resumes from
+         * @see StimulusReader#StimulusReader(Path, CompiledCircuit, long)
+         */
+        CompiledCircuit c = sim.circuit;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER * 8 || ch.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(file + " is not a snapshot");
+            }
+            LongBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            if (in.get() != MAGIC) {
+                throw new IllegalArgumentException(file + " is not a snapshot");
+            }
+            long version = in.get();
+            if (version < 1 || version > VERSION) {
+                throw new IllegalArgumentException(file + " is a snapshot of version " + version + ", version " + VERSION + " expected");
+            }
+            if (in.get() != c.fingerprint()) {
+                throw new IllegalArgumentException(file + " is a snapshot of another circuit");
+            }
+            long now = in.get();
+            long eventCount = in.get();
+            long stimulusLine = in.get();
+            in.get();  //gate and wire counts are part of the fingerprint
+            in.get();
+            boolean inertial = in.get() != 0;
+            long events = in.get();
+            if (in.remaining() != ((c.gateCount + 63) >>> 6) + ((c.wireCount + 63) >>> 6)
+                    + (inertial ? c.gateCount + c.wireCount : 0) + 2 * events) {
+                throw new IllegalArgumentException(file + " is a truncated snapshot");
+            }
+            if (inertial != sim.inertial()) {
+                throw new IllegalArgumentException(file + " is a snapshot of a run " + (inertial ? "with" : "without") + " inertial delay");
+            }
+            getBits(in, sim.gateValue);
+            getBits(in, sim.wireValue);
+            sim.recount();
+            if (inertial) {
+                in.get(sim.gatePending).get(sim.wirePending);
+            }
+            long[] pending = new long[(int) (2 * events)];
+            in.get(pending);
+            for (int i = 0; i < pending.length; i += 2) {
+                sim.eventQueue.add(pending[i], pending[i + 1]);
+            }
+            sim.now = now;
+            sim.eventCount = eventCount;
+            return stimulusLine;
+        }
+    }
+
+    private static void putBits(LongBuffer out, boolean[] values) {
+        long word = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i]) {
+                word |= 1L << i;
+            }
+            if ((i & 63) == 63 || i == values.length - 1) {
+                out.put(word);
+                word = 0;
+            }
+        }
+    }
+
+    private static void getBits(LongBuffer in, boolean[] values) {
+        long[] words = new long[(values.length + 63) >>> 6];
+        in.get(words);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (words[i >>> 6] & 1L << i) != 0;
+        }
+    }
+}
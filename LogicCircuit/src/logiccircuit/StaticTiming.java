@@ -0,0 +1,309 @@
+package com.rwedoff;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * StaticTiming finds the critical path delay of a circuit without simulating it: the latest time a change at
+ * any source can reach the output of each gate, the arrival time, from the gate and wire delays alone.
+ * The wires that close combinational loops, the feedback wires a Levelizer finds, are cut, so the timing
+ * graph is a DAG whose sources are the gates with no other inputs.
+ *
+ * The arrival of a gate only depends on gates of lower levels, so the gates of a level are independent and a
+ * level is split among the threads of a ForkJoinPool, one level after the other; the required times are found
+ * the same way from the last level back.  The slack of a gate is its required time less its arrival, the
+ * required time of an endpoint, a gate driving no forward wire, is the one asked for or else the critical path
+ * delay.  The K longest paths are enumerated from the endpoints back, best first: a partial path from a gate to
+ * an endpoint is ranked by the arrival of the gate plus the delay after it, which is exactly the longest
+ * complete path it can become, so complete paths come off the queue longest first.
+ * @see Levelizer
+ */
+class StaticTiming {
+    private static final int GRAIN = 2048;  //gates of a level one task evaluates without splitting further
+
+    final CompiledCircuit circuit;
+    final Levelizer levels;
+    final long[] arrival;       //per gate, latest change at its output, in ticks
+    final long[] required;      //per gate, latest its output may change for every endpoint to meet the required time
+    long criticalDelay;         //largest arrival
+    long requiredTime;
+    int endpoints;
+    int failing;                //endpoints of negative slack
+    private final int[] position;
+    private final int[] levelStart;  //gates of level l are levelGate[levelStart[l] .. levelStart[l+1])
+    private final int[] levelGate;
+
+    StaticTiming(CompiledCircuit circuit) {
+        this.circuit = circuit;
+        levels = new Levelizer(circuit);
+        int n = circuit.gateCount;
+        arrival = new long[n];
+        required = new long[n];
+        position = new int[n];
+        for (int p = 0; p < n; p++) {
+            position[levels.order[p]] = p;
+        }
+        levelStart = new int[levels.depth() + 1];
+        levelGate = new int[n];
+        for (int g = 0; g < n; g++) {
+            levelStart[levels.level[g] + 1]++;
+        }
+        for (int l = 1; l < levelStart.length; l++) {
+            levelStart[l] += levelStart[l - 1];
+        }
+        int[] fill = levelStart.clone();
+        for (int g = 0; g < n; g++) {
+            levelGate[fill[levels.level[g]]++] = g;
+        }
+    }
+
+    int levelCount() {  return levelStart.length - 1;  }
+
+    private boolean forward(int w) {
+        /** Whether wire w is kept, not a feedback wire */
+        return position[circuit.wireSource[w]] < position[circuit.wireDest[w]];
+    }
+
+    void analyze(long requiredTime, ForkJoinPool pool) {
+        /** Finds the arrival and required time of every gate, requiredTime < 0 for the critical path delay
+         */
+        for (int l = 0; l < levelCount(); l++) {
+            runLevel(l, true, pool);
+        }
+        criticalDelay = 0;
+        for (long a : arrival) {
+            criticalDelay = Math.max(criticalDelay, a);
+        }
+        this.requiredTime = requiredTime < 0 ? criticalDelay : requiredTime;
+        for (int l = levelCount() - 1; l >= 0; l--) {
+            runLevel(l, false, pool);
+        }
+        endpoints = 0;
+        failing = 0;
+        for (int g = 0; g < circuit.gateCount; g++) {
+            if (isEndpoint(g)) {
+                endpoints++;
+                if (arrival[g] > this.requiredTime) {
+                    failing++;
+                }
+            }
+        }
+    }
+
+    private void runLevel(int l, boolean arrivals, ForkJoinPool pool) {
+        int from = levelStart[l];
+        int to = levelStart[l + 1];
+        if (to - from <= GRAIN) {
+            evaluate(from, to, arrivals);
+        } else {
+            pool.invoke(new LevelTask(from, to, arrivals));
+        }
+    }
+
+    private class LevelTask extends RecursiveAction {
+        /** Evaluates levelGate[from .. to), splitting it in halves down to GRAIN gates */
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final boolean arrivals;
+
+        LevelTask(int from, int to, boolean arrivals) {
+            this.from = from;
+            this.to = to;
+            this.arrivals = arrivals;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                evaluate(from, to, arrivals);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LevelTask(from, mid, arrivals), new LevelTask(mid, to, arrivals));
+            }
+        }
+    }
+
+    private void evaluate(int from, int to, boolean arrivals) {
+        /** The arrival, or the required time, of the gates levelGate[from .. to) of one level
+         */
+        CompiledCircuit c = circuit;
+        for (int i = from; i < to; i++) {
+            int g = levelGate[i];
+            if (arrivals) {
+                long latest = 0;
+                for (int f = c.faninStart[g]; f < c.faninStart[g + 1]; f++) {
+                    int w = c.faninWire[f];
+                    if (forward(w)) {
+                        latest = Math.max(latest, arrival[c.wireSource[w]] + c.wireDelay[w]);
+                    }
+                }
+                arrival[g] = latest + c.gateDelay[g];
+            } else {
+                long earliest = requiredTime;
+                for (int f = c.fanoutStart[g]; f < c.fanoutStart[g + 1]; f++) {
+                    int w = c.fanoutWire[f];
+                    if (forward(w)) {
+                        int d = c.wireDest[w];
+                        earliest = Math.min(earliest, required[d] - c.gateDelay[d] - c.wireDelay[w]);
+                    }
+                }
+                required[g] = earliest;
+            }
+        }
+    }
+
+    boolean isEndpoint(int g) {
+        for (int f = circuit.fanoutStart[g]; f < circuit.fanoutStart[g + 1]; f++) {
+            if (forward(circuit.fanoutWire[f])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long slack(int g) {  return required[g] - arrival[g];  }
+
+    long worstSlack() {
+        long worst = Long.MAX_VALUE;
+        for (int g = 0; g < circuit.gateCount; g++) {
+            worst = Math.min(worst, slack(g));
+        }
+        return worst;
+    }
+
+    static class Path {
+        /** A path from a source to an endpoint: its gates, source first, and the wires between them */
+        final int[] gates;
+        final int[] wires;
+        final long delay;
+
+        Path(int[] gates, int[] wires, long delay) {
+            this.gates = gates;
+            this.wires = wires;
+            this.delay = delay;
+        }
+    }
+
+    List<Path> criticalPaths(int k) {
+        /** The k longest paths, longest first
+         */
+        CompiledCircuit c = circuit;
+        //the k endpoints of the latest arrival start k paths at least as long as any from the other endpoints
+        PriorityQueue<Integer> top = new PriorityQueue<>((a, b) -> arrival[a] != arrival[b]
+                ? Long.compare(arrival[a], arrival[b]) : Integer.compare(b, a));
+        for (int g = 0; g < c.gateCount; g++) {
+            if (isEndpoint(g)) {
+                top.add(g);
+                if (top.size() > k) {
+                    top.poll();
+                }
+            }
+        }
+        int[] ends = new int[top.size()];
+        for (int i = ends.length - 1; i >= 0; i--) {
+            ends[i] = top.poll();
+        }
+
+        PathNodes nodes = new PathNodes();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+            long ka = arrival[nodes.gate[a]] + nodes.after[a];
+            long kb = arrival[nodes.gate[b]] + nodes.after[b];
+            return ka != kb ? Long.compare(kb, ka) : Integer.compare(b, a);  //the newest on ties, to finish a path first
+        });
+        int nextEnd = 0;
+        List<Path> paths = new ArrayList<>();
+        if (ends.length > 0) {
+            queue.add(nodes.add(ends[nextEnd++], -1, -1, 0));
+        }
+        while (paths.size() < k && !queue.isEmpty()) {
+            int node = queue.poll();
+            int g = nodes.gate[node];
+            if (nodes.next[node] < 0 && nextEnd < ends.length) {
+                queue.add(nodes.add(ends[nextEnd++], -1, -1, 0));  //the next endpoint can only start shorter paths
+            }
+            boolean source = true;
+            for (int f = c.faninStart[g]; f < c.faninStart[g + 1]; f++) {
+                int w = c.faninWire[f];
+                if (forward(w)) {
+                    source = false;
+                    queue.add(nodes.add(c.wireSource[w], w, node, nodes.after[node] + c.wireDelay[w] + c.gateDelay[g]));
+                }
+            }
+            if (source) {
+                int length = 1;
+                for (int x = node; nodes.next[x] >= 0; x = nodes.next[x]) {
+                    length++;
+                }
+                int[] gates = new int[length];
+                int[] wires = new int[length - 1];
+                int i = 0;
+                for (int x = node; x >= 0; x = nodes.next[x]) {
+                    gates[i] = nodes.gate[x];
+                    if (nodes.next[x] >= 0) {
+                        wires[i] = nodes.wire[x];
+                    }
+                    i++;
+                }
+                paths.add(new Path(gates, wires, arrival[g] + nodes.after[node]));
+            }
+        }
+        return paths;
+    }
+
+    private static class PathNodes {
+        /** Partial paths: a gate, the wire out of it to the rest of the path, the node the rest starts at,
+         * and the delay from the output of the gate to the end of the path */
+        int[] gate = new int[64];
+        int[] wire = new int[64];
+        int[] next = new int[64];
+        long[] after = new long[64];
+        int size;
+
+        int add(int g, int w, int rest, long delay) {
+            if (size == gate.length) {
+                gate = Arrays.copyOf(gate, size * 2);
+                wire = Arrays.copyOf(wire, size * 2);
+                next = Arrays.copyOf(next, size * 2);
+                after = Arrays.copyOf(after, size * 2);
+            }
+            gate[size] = g;
+            wire[size] = w;
+            next[size] = rest;
+            after[size] = delay;
+            return size++;
+        }
+    }
+
+    void writeReport(PrintStream out, int k) {
+        /** Writes the critical path delay, the slack and the k longest paths.  Paths of more than 40 gates are
+         * shortened to their first and last 20
+         */
+        CompiledCircuit c = circuit;
+        out.println("Critical path delay: " + CompiledCircuit.toTime(criticalDelay));
+        out.println("Required time: " + CompiledCircuit.toTime(requiredTime) + ", worst slack: " + CompiledCircuit.toTime(worstSlack())
+                + ", failing endpoints: " + failing + " of " + endpoints);
+        List<Path> paths = criticalPaths(k);
+        for (int p = 0; p < paths.size(); p++) {
+            Path path = paths.get(p);
+            int[] gates = path.gates;
+            out.println("\nPath " + (p + 1) + ": delay " + CompiledCircuit.toTime(path.delay) + ", slack "
+                    + CompiledCircuit.toTime(requiredTime - path.delay) + ", " + gates.length + " gates");
+            long t = 0;
+            for (int i = 0; i < gates.length; i++) {
+                t += (i > 0 ? c.wireDelay[path.wires[i - 1]] : 0) + c.gateDelay[gates[i]];
+                if (gates.length > 40 && i == 20) {
+                    out.println("  ... " + (gates.length - 40) + " more");
+                }
+                if (gates.length <= 40 || i < 20 || i >= gates.length - 20) {
+                    out.println("  " + CompiledCircuit.toTime(t) + " " + c.gateName[gates[i]]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.rwedoff;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+
+/**
+ * StimulusReader drives the input gates of a circuit from a file of timed input changes, one input vector a line:
+ *
+ *     time name value [name value ...]
+ *
+ * where time is in the units of the netlist and never goes back, name is a gate input of the circuit and value is
+ * 0, 1, false or true.  Lines starting with // are comments.  The file is read lazily: CompiledSimulation asks for
+ * the next batch only when simulated time reaches the changes it has not queued yet, so no more than BATCH changes
+ * are read ahead and memory does not depend on the length of the stimulus.
+ *
+ * A stimulus read per lane, for the lanes of a bit parallel run, may give a line the lanes it drives:
+ *
+ *     time @lane[,lane ...] name value [name value ...]
+ *
+ * and a line without them drives every lane, so one file holds a different input pattern for each lane.
+ * @see CompiledSimulation#setStimulus(StimulusReader)
+ * @see BitParallelSimulation#setStimulus(StimulusReader)
+ * @see InputGate
+ */
+class StimulusReader implements Closeable {
+    static final int BATCH = 4096;  //input changes queued at a time
+
+    private final BufferedReader in;
+    private final HashMap<String, Integer> inputs = new HashMap<>();
+    private final boolean perLane;
+    private long lineNumber;
+    private long lastTick = Long.MIN_VALUE;
+    private long changes;         //input changes queued so far
+    /** The line read ahead, its tick is Long.MAX_VALUE at the end of the file */
+    private long nextTick;
+    private int[] nextGate = new int[16];
+    private boolean[] nextValue = new boolean[16];
+    private int nextCount;
+    private long nextLanes;    //lanes the line drives, bit l for lane l
+
+    StimulusReader(Path file, CompiledCircuit circuit) throws IOException {
+        this(file, circuit, 1, false);
+    }
+
+    StimulusReader(Path file, CompiledCircuit circuit, boolean perLane) throws IOException {
+        /** Reads a stimulus whose lines may name the lanes they drive, if perLane */
+        this(file, circuit, 1, perLane);
+    }
+
+    StimulusReader(Path file, CompiledCircuit circuit, long resumeLine) throws IOException {
+        /** Reads the stimulus from line resumeLine on, the line a snapshot saved
+         * @see #resumeLine()
+         */
+        this(file, circuit, resumeLine, false);
+    }
+
+    private StimulusReader(Path file, CompiledCircuit circuit, long resumeLine, boolean perLane) throws IOException {
+        this.perLane = perLane;
+        for (int g = 0; g < circuit.gateCount; g++) {
+            if (circuit.gateType[g] == CompiledCircuit.INPUT) {
+                inputs.put(circuit.gateName[g], g);
+            }
+        }
+        in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        while (lineNumber < resumeLine - 1 && in.readLine() != null) {
+            lineNumber++;
+        }
+        readLine();
+    }
+
+    long nextKey() {
+        /** The key of the next input change that has not been queued, Long.MAX_VALUE after the last one */
+        return nextTick == Long.MAX_VALUE ? Long.MAX_VALUE : CompiledSimulation.gateKey(nextTick);
+    }
+
+    long changes() {  return changes;  }
+
+    long resumeLine() {
+        /** The line to resume from, the first one not queued yet, -1 once everything has been queued */
+        return nextTick == Long.MAX_VALUE ? -1 : lineNumber;
+    }
+
+    long feed(CompiledSimulation sim) {
+        /** Queues the input changes of the next lines, about BATCH of them, and returns the key of the first
+         * change left unread.  A change is an input event in the gate phase of its tick, so the input gate
+         * switches as if it had been evaluated then and its out wires follow a gate delay later
+         */
+        return feed((key, code, lanes) -> sim.schedule(key, code));
+    }
+
+    long feed(BitParallelSimulation sim) {
+        /** Queues the next input changes as feed(CompiledSimulation) does, each one in the lanes its line drives */
+        return feed(sim::scheduleInput);
+    }
+
+    private interface EventQueue {
+        void schedule(long key, long code, long lanes);
+    }
+
+    private long feed(EventQueue sim) {
+        int queued = 0;
+        while (nextTick != Long.MAX_VALUE && queued < BATCH) {
+            long key = CompiledSimulation.gateKey(nextTick);
+            for (int i = 0; i < nextCount; i++) {
+                sim.schedule(key, CompiledSimulation.inputEvent(nextGate[i], nextValue[i]), nextLanes);
+            }
+            changes += nextCount;
+            queued += Math.max(nextCount, 1);
+            readLine();
+        }
+        return nextKey();
+    }
+
+    private void readLine() {
+        /** Reads the next line that is not empty or a comment into nextTick, nextGate and nextValue
+         */
+        String line;
+        try {
+            do {
+                line = in.readLine();
+                lineNumber++;
+            } while (line != null && (line.trim().isEmpty() || line.trim().startsWith("//")));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (line == null) {
+            nextTick = Long.MAX_VALUE;
+            nextCount = 0;
+            return;
+        }
+        StringTokenizer st = new StringTokenizer(line);
+        String time = st.nextToken();
+        try {
+            nextTick = Math.round(Double.parseDouble(time) * CompiledCircuit.TICKS_PER_UNIT);
+        } catch (NumberFormatException e) {
+            throw error(time + ", time expected");
+        }
+        if (nextTick < 0 || nextTick < lastTick) {
+            throw error(time + ", time is before the line above");
+        }
+        lastTick = nextTick;
+        nextCount = 0;
+        nextLanes = -1L;
+        while (st.hasMoreTokens()) {
+            String name = st.nextToken();
+            if (name.startsWith("@") && nextCount == 0 && nextLanes == -1L) {
+                nextLanes = parseLanes(name);
+                continue;
+            }
+            Integer g = inputs.get(name);
+            if (g == null) {
+                throw error(name + ", no such input");
+            }
+            if (!st.hasMoreTokens()) {
+                throw error(name + ", value expected");
+            }
+            String value = st.nextToken();
+            if (nextCount == nextGate.length) {
+                nextGate = Arrays.copyOf(nextGate, nextCount * 2);
+                nextValue = Arrays.copyOf(nextValue, nextCount * 2);
+            }
+            nextGate[nextCount] = g;
+            nextValue[nextCount++] = parseValue(value);
+        }
+    }
+
+    private long parseLanes(String lanes) {
+        /** The lanes of an @lane,lane ... token */
+        if (!perLane) {
+            throw error(lanes + ", lanes only apply to the lanes of -patterns");
+        }
+        long mask = 0;
+        for (String lane : lanes.substring(1).split(",")) {
+            int l;
+            try {
+                l = Integer.parseInt(lane);
+            } catch (NumberFormatException e) {
+                l = -1;
+            }
+            if (l < 0 || l >= BitParallelSimulation.LANES) {
+                throw error(lanes + ", lanes 0 to " + (BitParallelSimulation.LANES - 1) + " expected");
+            }
+            mask |= 1L << l;
+        }
+        return mask;
+    }
+
+    private boolean parseValue(String value) {
+        if (value.equals("1") || value.equalsIgnoreCase("true")) {
+            return true;
+        } else if (value.equals("0") || value.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw error(value + ", value expected (0, 1, false, true)");
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("stimulus line " + lineNumber + ": " + message);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,153 @@
+package com.rwedoff;
+
+import java.util.Arrays;
+
+class TimingWheel implements EventScheduler {
+    /** TimingWheel is a circular array of buckets, one bucket per time step, covering the times [now, now + span).
+     * Each bucket is a FIFO list of pooled nodes, so add and poll are O(1).
+     * Events further ahead than the span wait in a HeapScheduler and are moved onto the wheel when it reaches them.
+     * An occupancy bitmap lets peekTime skip 64 empty buckets at a time.
+     * Only poll moves the wheel, so events may still be added for any time from the last one polled on,
+     * even after peekTime has looked further ahead.
+     */
+    private final int span;
+    private final int mask;
+    private final int[] head;        //first node of each bucket, -1 if empty
+    private final int[] tail;        //last node of each bucket
+    private final long[] occupied;   //bit b set when bucket b is not empty
+    private long[] nodeCode = new long[256];
+    private int[] nodeNext = new int[256];
+    private int freeNode = -1;       //head of the list of released nodes
+    private int nodesUsed;           //nodes ever handed out, the rest of the arrays is untouched
+    private final HeapScheduler overflow = new HeapScheduler();
+    private long now;                //the wheel holds the events with times in [now, now + span)
+    private long next = -1;          //time of the next event, -1 when it has to be looked up again
+    private int onWheel;
+
+    TimingWheel() {
+        this(1 << 12);
+    }
+
+    TimingWheel(int span) {
+        if (Integer.bitCount(span) != 1 || span < 64) {
+            throw new IllegalArgumentException(span + " --wheel span must be a power of two of at least 64");
+        }
+        this.span = span;
+        mask = span - 1;
+        head = new int[span];
+        tail = new int[span];
+        occupied = new long[span / 64];
+        Arrays.fill(head, -1);
+    }
+
+    @Override
+    public boolean isEmpty() {  return onWheel == 0 && overflow.isEmpty();  }
+    @Override
+    public int size() {  return onWheel + overflow.size();  }
+
+    @Override
+    public void add(long t, long c) {
+        if (t < now) {
+            throw new IllegalStateException("event at time " + t + " is before the current time " + now);
+        }
+        if (t - now >= span) {
+            overflow.add(t, c);
+        } else {
+            append((int) t & mask, c);
+        }
+        if (t < next) {
+            next = t;
+        }
+    }
+
+    @Override
+    public long peekTime() {
+        if (next < 0) {
+            next = findNext();
+        }
+        return next;
+    }
+
+    @Override
+    public long poll() {
+        long t = peekTime();
+        if (t != now) {
+            now = t;
+            refill();
+        }
+        next = -1;
+        int bucket = (int) now & mask;
+        int node = head[bucket];
+        head[bucket] = nodeNext[node];
+        if (head[bucket] == -1) {
+            occupied[bucket >>> 6] &= ~(1L << bucket);
+        }
+        nodeNext[node] = freeNode;
+        freeNode = node;
+        onWheel--;
+        return nodeCode[node];
+    }
+
+    @Override
+    public void forEach(Visitor visitor) {
+        /** The buckets from now on, then the overflow, which is always later than the wheel */
+        for (int i = 0; i < span && onWheel > 0; i++) {
+            for (int node = head[(int) (now + i) & mask]; node != -1; node = nodeNext[node]) {
+                visitor.visit(now + i, nodeCode[node]);
+            }
+        }
+        overflow.forEach(visitor);
+    }
+
+    private void append(int bucket, long c) {
+        int node = freeNode;
+        if (node != -1) {
+            freeNode = nodeNext[node];
+        } else {
+            if (nodesUsed == nodeCode.length) {
+                nodeCode = Arrays.copyOf(nodeCode, nodesUsed * 2);
+                nodeNext = Arrays.copyOf(nodeNext, nodesUsed * 2);
+            }
+            node = nodesUsed++;
+        }
+        nodeCode[node] = c;
+        nodeNext[node] = -1;
+        if (head[bucket] == -1) {
+            head[bucket] = node;
+            occupied[bucket >>> 6] |= 1L << bucket;
+        } else {
+            nodeNext[tail[bucket]] = node;
+        }
+        tail[bucket] = node;
+        onWheel++;
+    }
+
+    private long findNext() {
+        /** Finds the first non-empty bucket from now on, wrapping around the wheel once.
+         * Only called when the scheduler is not empty.
+         */
+        if (onWheel == 0) {
+            return overflow.peekTime();  //nothing on the wheel, the overflow holds the next event
+        }
+        int bucket = (int) now & mask;
+        int word = bucket >>> 6;
+        long bits = occupied[word] & (-1L << bucket);  //buckets at or after this one in the same word
+        while (bits == 0) {
+            word = (word + 1) % occupied.length;
+            bits = occupied[word];
+        }
+        int first = (word << 6) + Long.numberOfTrailingZeros(bits);
+        return now + ((first - bucket) & mask);
+    }
+
+    private void refill() {
+        /** Moves the overflow events that now fall inside the wheel onto it, keeping their FIFO order.
+         * This always runs before anything else can be added for those times.
+         * Overflow events are at least a span after the old now, so they all come after the events on the wheel.
+         */
+        while (!overflow.isEmpty() && overflow.peekTime() - now < span) {
+            long t = overflow.peekTime();
+            append((int) t & mask, overflow.poll());
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.rwedoff;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A TraceSink receives the gate transitions of a CompiledSimulation as primitive (tick, gate id, value) records.
+ * Records arrive in the order the events run, which is not always time order, because a gate reports
+ * the time its new value appears on its output.  Every sink buffers and writes in large chunks.
+ * @see TextTraceSink
+ * @see BinaryTraceSink
+ * @see VcdTraceSink
+ * @see NullTraceSink
+ */
+interface TraceSink {
+    /** Called once before the simulation starts */
+    void begin(GateIndex circuit) throws IOException;
+    /** Gate g goes to value at tick */
+    void gateChanged(long tick, int g, boolean value) throws IOException;
+    /** Writes everything buffered so far */
+    void flush() throws IOException;
+    /** Flushes and releases the sink */
+    void close() throws IOException;
+
+    static TraceSink create(String spec) throws IOException {
+        /** Creates a sink from its command line form, kind[:file], e.g. text, vcd:run.vcd or binary:run.trc
+         * text writes to standard out when no file is given
+         */
+        int colon = spec.indexOf(':');
+        String kind = colon < 0 ? spec : spec.substring(0, colon);
+        String file = colon < 0 ? null : spec.substring(colon + 1);
+        if (kind.equals("none")) {
+            return new NullTraceSink();
+        } else if (kind.equals("text")) {
+            return file == null ? new TextTraceSink(System.out, false)
+                    : new TextTraceSink(new FileOutputStream(file), true);
+        } else if (file == null) {
+            throw new IllegalArgumentException(kind + " trace needs a file, " + kind + ":<file>");
+        } else if (kind.equals("binary")) {
+            return new BinaryTraceSink(Paths.get(file));
+        } else if (kind.equals("vcd")) {
+            return new VcdTraceSink(Paths.get(file));
+        }
+        throw new IllegalArgumentException(kind + " is not a valid trace (text, binary, vcd, none)");
+    }
+}
+
+class TextTraceSink implements TraceSink {
+    /** Writes the same "Time t Gate name goes to value" lines the object simulation prints,
+     * built in a byte buffer instead of one String per line
+     */
+    private static final byte[] TIME = "Time ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GATE = " Gate ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GOES_TO_TRUE = " goes to true\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GOES_TO_FALSE = " goes to false\n".getBytes(StandardCharsets.US_ASCII);
+    static final int NAME_CACHE_LIMIT = 1 << 24;  //gates, a larger circuit looks its names up on every line
+
+    private final OutputStream out;
+    private final boolean closeOut;
+    private final byte[] buffer = new byte[1 << 16];
+    private int used;
+    private GateIndex circuit;
+    private byte[][] names;          //made as each gate first reports, null past NAME_CACHE_LIMIT
+    private long lastTick = -1;      //many transitions share a time, so its text is kept
+    private byte[] lastTime;
+
+    TextTraceSink(OutputStream out, boolean closeOut) {
+        this.out = out;
+        this.closeOut = closeOut;
+    }
+
+    @Override
+    public void begin(GateIndex circuit) {
+        this.circuit = circuit;
+        if (circuit.gateCount() <= NAME_CACHE_LIMIT) {
+            names = new byte[circuit.gateCount()][];
+        }
+    }
+
+    @Override
+    public void gateChanged(long tick, int g, boolean value) throws IOException {
+        if (tick != lastTick) {
+            lastTick = tick;
+            lastTime = Float.toString(CompiledCircuit.toTime(tick)).getBytes(StandardCharsets.US_ASCII);
+        }
+        byte[] name = names == null ? null : names[g];
+        if (name == null) {
+            name = circuit.gateName(g).getBytes(StandardCharsets.UTF_8);
+            if (names != null) {
+                names[g] = name;
+            }
+        }
+        if (used + TIME.length + lastTime.length + GATE.length + name.length + GOES_TO_FALSE.length > buffer.length) {
+            flushBuffer();
+        }
+        put(TIME);
+        put(lastTime);
+        put(GATE);
+        put(name);
+        put(value ? GOES_TO_TRUE : GOES_TO_FALSE);
+    }
+
+    private void put(byte[] b) throws IOException {
+        if (b.length > buffer.length - used) {  //only a very long gate name does not fit an empty buffer
+            flushBuffer();
+            out.write(b);
+            return;
+        }
+        System.arraycopy(b, 0, buffer, used, b.length);
+        used += b.length;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, used);
+        used = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (closeOut) {
+            out.close();
+        }
+    }
+}
+
+class BinaryTraceSink implements TraceSink {
+    /** Writes the trace as fixed size records through a FileChannel:
+     * a header of magic "LCTR", version and gate count, then one (long tick, int gate, byte value) record per transition.
+     * Ticks are hundredths of a time unit, see CompiledCircuit.TICKS_PER_UNIT.
+     */
+    static final int MAGIC = 0x4c435452;  //"LCTR"
+    static final int VERSION = 1;
+    static final int RECORD_SIZE = 8 + 4 + 1;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE << 16);
+
+    BinaryTraceSink(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void begin(GateIndex circuit) {
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(circuit.gateCount());
+    }
+
+    @Override
+    public void gateChanged(long tick, int g, boolean value) throws IOException {
+        if (buffer.remaining() < RECORD_SIZE) {
+            flush();
+        }
+        buffer.putLong(tick).putInt(g).put(value ? (byte) 1 : (byte) 0);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
+
+class VcdTraceSink implements TraceSink {
+    /** Writes an IEEE 1364 value change dump for waveform viewers.
+     * A VCD file must be in time order, so transitions wait in a HeapScheduler until no later event can
+     * report an earlier time: a record is reported while its gate's event runs at (tick - gate delay),
+     * and events run in time order, so every record before the latest event time is final.
+     * One tick is written as 10ps, i.e. the netlist time unit is taken to be a nanosecond.
+     */
+    private final TextOut out;
+    private final HeapScheduler pending = new HeapScheduler();
+    private GateIndex circuit;
+    private byte[][] ids;
+    private boolean[] written;   //last value written per gate, a not gate reports its value even when it did not change
+    private long eventTime;      //latest time an event ran at
+    private long lastTime = -1;  //last time stamp written
+
+    VcdTraceSink(Path file) throws IOException {
+        out = new TextOut(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    static String idCode(int g) {
+        /** VCD identifier codes are short strings of the printable characters '!' to '~' */
+        StringBuilder sb = new StringBuilder();
+        do {
+            sb.append((char) ('!' + g % 94));
+            g /= 94;
+        } while (g > 0);
+        return sb.toString();
+    }
+
+    @Override
+    public void begin(GateIndex circuit) throws IOException {
+        this.circuit = circuit;
+        ids = new byte[circuit.gateCount()][];
+        written = new boolean[circuit.gateCount()];
+        out.put("$version LogicCircuit $end\n$timescale 10ps $end\n$scope module logiccircuit $end\n");
+        for (int g = 0; g < circuit.gateCount(); g++) {
+            String id = idCode(g);
+            ids[g] = id.getBytes(StandardCharsets.US_ASCII);
+            out.put("$var wire 1 " + id + " " + circuit.gateName(g).replace(' ', '_') + " $end\n");
+        }
+        out.put("$upscope $end\n$enddefinitions $end\n#0\n$dumpvars\n");
+        for (int g = 0; g < circuit.gateCount(); g++) {
+            out.put((byte) '0');
+            out.put(ids[g]);
+            out.put((byte) '\n');
+        }
+        out.put("$end\n");
+        lastTime = 0;
+    }
+
+    @Override
+    public void gateChanged(long tick, int g, boolean value) throws IOException {
+        long ranAt = tick - circuit.gateDelay(g);
+        if (ranAt > eventTime) {
+            eventTime = ranAt;
+            writeBefore(eventTime);
+        }
+        pending.add(tick, g << 1 | (value ? 1 : 0));
+    }
+
+    private void writeBefore(long limit) throws IOException {
+        while (!pending.isEmpty() && pending.peekTime() < limit) {
+            long tick = pending.peekTime();
+            long code = pending.poll();
+            int g = (int) (code >>> 1);
+            boolean value = (code & 1) != 0;
+            if (written[g] == value) {
+                continue;
+            }
+            written[g] = value;
+            if (tick != lastTime) {
+                lastTime = tick;
+                out.put((byte) '#');
+                out.put(tick);
+                out.put((byte) '\n');
+            }
+            out.put(value ? (byte) '1' : (byte) '0');
+            out.put(ids[g]);
+            out.put((byte) '\n');
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeBefore(Long.MAX_VALUE);
+        out.close();
+    }
+}
+
+class TextOut {
+    /** A small ASCII writer over a FileChannel with a large direct buffer */
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final byte[] digits = new byte[20];
+
+    TextOut(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    void put(byte[] b) throws IOException {
+        for (byte x : b) {
+            put(x);
+        }
+    }
+
+    void put(String s) throws IOException {
+        put(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void put(long n) throws IOException {
+        /** Writes a non negative number in decimal */
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + n % 10);
+            n /= 10;
+        } while (n > 0);
+        for (; i < digits.length; i++) {
+            put(digits[i]);
+        }
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
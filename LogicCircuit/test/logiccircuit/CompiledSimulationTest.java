@@ -0,0 +1,48 @@
+package com.rwedoff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import org.junit.Test;
+
+/**
+ * Checks that the compiled event loop allocates nothing per event once it has warmed up, the promise of
+ * propagating events through primitive codes and a pooled scheduler rather than an event object each.
+ * @see CompiledSimulation
+ */
+public class CompiledSimulationTest {
+    private static final long WARMUP_TICKS = 100_000;
+    private static final long MEASURED_TICKS = 100_000;
+
+    @Test
+    public void eventLoopDoesNotAllocateAfterWarmup() throws IOException {
+        assertTrue("this JVM cannot count allocated bytes", Benchmarks.allocatedBytes() >= 0);
+        //rings of not gates never settle, so the loop keeps running events as long as it is asked to
+        CompiledCircuit circuit = Benchmarks.scan(CircuitGenerator.ringOscillators(50, 7, 1).netlist());
+        for (String scheduler : new String[] {"wheel", "heap"}) {
+            CompiledSimulation sim = new CompiledSimulation(circuit, EventScheduler.create(scheduler), new NullTraceSink());
+            sim.trace.begin(circuit);
+            sim.initSimulation();
+            sim.runBefore(CompiledSimulation.wireKey(WARMUP_TICKS));
+            long overhead = allocationOverhead();
+            long events = sim.eventCount;
+            long before = Benchmarks.allocatedBytes();
+            sim.runBefore(CompiledSimulation.wireKey(WARMUP_TICKS + MEASURED_TICKS));
+            long allocated = Benchmarks.allocatedBytes() - before - overhead;
+            assertTrue(scheduler + ": no events were run", sim.eventCount - events > 100_000);
+            assertEquals(scheduler + ": bytes allocated over " + (sim.eventCount - events) + " events",
+                    0, Math.max(allocated, 0));
+        }
+    }
+
+    private static long allocationOverhead() {
+        /** Bytes that reading the allocation counter itself costs, taken off the measurement */
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long start = Benchmarks.allocatedBytes();
+            overhead = Math.min(overhead, Benchmarks.allocatedBytes() - start);
+        }
+        return overhead;
+    }
+}